@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic data sets shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+    static final int SUGGESTION_LIMIT = 50;
+
+    private static final String[] FIRST_NAMES = {
+        "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda",
+        "William", "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica",
+        "Thomas", "Sarah", "Charles", "Karen", "Daniel", "Nancy", "Matthew", "Lisa",
+    };
+
+    private static final String[] LAST_NAMES = {
+        "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis",
+        "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson",
+        "Thomas", "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White",
+    };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Return count distinct contacts, e.g. "John Smith <john.smith42@example.com>".
+     */
+    static List<String> contacts(int count, long seed) {
+        final Random random = new Random(seed);
+        final List<String> contacts = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            final String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            final String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            contacts.add(first + " " + last + " <" + first.toLowerCase() + "." +
+                         last.toLowerCase() + i + "@example.com>");
+        }
+        return contacts;
+    }
+
+    /**
+     * Return count prefixes of random items, of 1 to maxLength characters.
+     */
+    static String[] prefixes(List<String> items, int count, int maxLength, long seed) {
+        final Random random = new Random(seed);
+        final String[] prefixes = new String[count];
+        for (int i = 0; i < count; i++) {
+            final String item = items.get(random.nextInt(items.size()));
+            prefixes[i] = item.substring(0, 1 + random.nextInt(Math.min(maxLength, item.length())));
+        }
+        return prefixes;
+    }
+
+    /**
+     * Return count fragments of random items, e.g. "jsmi" for "John Smith": the
+     * first letters of the first name, then of the last name.
+     */
+    static String[] fragments(List<String> items, int count, long seed) {
+        final Random random = new Random(seed);
+        final String[] fragments = new String[count];
+        for (int i = 0; i < count; i++) {
+            final String item = items.get(random.nextInt(items.size()));
+            final int space = item.indexOf(' ');
+            final String first = item.substring(0, 1 + random.nextInt(2));
+            final String last = item.substring(space + 1, space + 2 + random.nextInt(3));
+            fragments[i] = (first + last).toLowerCase();
+        }
+        return fragments;
+    }
+
+    /**
+     * Return a copy of items with edits random insertions and deletions.
+     */
+    static Object[] edit(Object[] items, int edits, long seed) {
+        final Random random = new Random(seed);
+        final List<Object> edited = new ArrayList<Object>(items.length + edits);
+        for (Object item : items) {
+            edited.add(item);
+        }
+        for (int i = 0; i < edits; i++) {
+            if (edited.isEmpty() || random.nextBoolean()) {
+                edited.add(random.nextInt(edited.size() + 1), "new" + i);
+            } else {
+                edited.remove(random.nextInt(edited.size()));
+            }
+        }
+        return edited.toArray();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The layout of a chip's span layers by {@link ChipLayoutCalculator}, when a
+ * layer changes and when nothing does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChipLayoutCalculatorBenchmark {
+
+    @Param({ "1", "4", "16" })
+    public int layers;
+
+    private ChipLayoutCalculator mCalculator;
+    private int mWidth;
+
+    @Setup
+    public void setUp() {
+        mCalculator = new ChipLayoutCalculator();
+        feed(100);
+    }
+
+    @Benchmark
+    public boolean changed() {
+        // a chip of another width, e.g. another label
+        mWidth = mWidth == 100 ? 120 : 100;
+        return feed(mWidth);
+    }
+
+    @Benchmark
+    public boolean unchanged() {
+        return feed(100);
+    }
+
+    private boolean feed(int width) {
+        final ChipLayoutCalculator calculator = mCalculator.begin();
+        for (int i = 0; i < layers; i++) {
+            calculator.setLayer(i % 5, width - i, 40 - i % 8, i, i, i, i);
+        }
+        return calculator.end();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranked fuzzy queries of {@link FuzzySuggestionSource}, up to a 500k-entry
+ * corpus, and the {@link TopKSelector} they keep the best candidates in. A
+ * query is linear in the corpus size, the selection only logarithmic in k.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FuzzySuggestionSourceBenchmark {
+
+    @Param({ "1000", "100000", "500000" })
+    public int size;
+
+    private FuzzySuggestionSource<String> mSource;
+    private String[] mFragments;
+    private int[] mScores;
+    private TopKSelector mSelector;
+    private int[] mDrain;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        final List<String> contacts = BenchmarkData.contacts(size, 1);
+        mSource = new FuzzySuggestionSource<String>(contacts);
+        mFragments = BenchmarkData.fragments(contacts, 256, 2);
+
+        final Random random = new Random(3);
+        mScores = new int[size];
+        for (int i = 0; i < size; i++) {
+            mScores[i] = random.nextInt(1000);
+        }
+        mSelector = new TopKSelector(BenchmarkData.SUGGESTION_LIMIT);
+        mDrain = new int[BenchmarkData.SUGGESTION_LIMIT];
+    }
+
+    @Benchmark
+    public List<String> query() {
+        mNext = (mNext + 1) & 255;
+        return mSource.query(mFragments[mNext], BenchmarkData.SUGGESTION_LIMIT);
+    }
+
+    @Benchmark
+    public int selectTopK() {
+        final TopKSelector selector = mSelector;
+        final int[] scores = mScores;
+        for (int i = 0; i < scores.length; i++) {
+            selector.offer(i, scores[i]);
+        }
+        return selector.drainTo(mDrain);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefix queries and exact key lookups of {@link PrefixIndex}. Both should stay
+ * flat as the data set grows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrefixIndexBenchmark {
+
+    @Param({ "10", "1000", "100000", "500000" })
+    public int size;
+
+    private PrefixIndex<String> mIndex;
+    private String[] mPrefixes;
+    private String[] mKeys;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        final List<String> contacts = BenchmarkData.contacts(size, 1);
+        mIndex = new PrefixIndex<String>(contacts);
+        mPrefixes = BenchmarkData.prefixes(contacts, 1024, 4, 2);
+        mKeys = new String[1024];
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = contacts.get((i * 7919) % size);
+        }
+    }
+
+    @Benchmark
+    public List<String> query() {
+        mNext = (mNext + 1) & 1023;
+        return mIndex.query(mPrefixes[mNext], BenchmarkData.SUGGESTION_LIMIT);
+    }
+
+    @Benchmark
+    public String lookup() {
+        mNext = (mNext + 1) & 1023;
+        return mIndex.lookup(mKeys[mNext]);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SequenceDiff} of a selection against an edited copy of it, as done by
+ * SpannedAutoCompleteView#setSelectedItems(). The cost should follow the
+ * number of edits, not the selection size squared.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SequenceDiffBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    public int size;
+
+    @Param({ "0", "1", "16", "256" })
+    public int edits;
+
+    private Object[] mItems;
+    private Object[] mEdited;
+
+    @Setup
+    public void setUp() {
+        mItems = BenchmarkData.contacts(size, 1).toArray();
+        mEdited = BenchmarkData.edit(mItems, edits, 2);
+    }
+
+    @Benchmark
+    public int[] diff() {
+        return SequenceDiff.diff(mItems, mEdited);
+    }
+}
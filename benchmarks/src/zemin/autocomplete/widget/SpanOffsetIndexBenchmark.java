@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token boundary searches in a {@link SpanOffsetIndex} of size chips, and
+ * typing in front of, or after, all of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpanOffsetIndexBenchmark {
+
+    // a chip of 20 characters and its separator
+    private static final int CHIP_LENGTH = 21;
+
+    @Param({ "10", "1000", "100000" })
+    public int size;
+
+    private SpanOffsetIndex<Integer> mIndex;
+    private int mLength;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mIndex = new SpanOffsetIndex<Integer>();
+        for (int i = 0; i < size; i++) {
+            mIndex.add(i, i * CHIP_LENGTH, i * CHIP_LENGTH + CHIP_LENGTH - 1);
+        }
+        mLength = size * CHIP_LENGTH;
+    }
+
+    @Benchmark
+    public int floor() {
+        mNext = (mNext + 7919) % mLength;
+        return mIndex.floor(mNext);
+    }
+
+    @Benchmark
+    public int typeInFront() {
+        // a character typed, then deleted, before the first chip
+        mIndex.onTextChanged(0, 0, 1);
+        mIndex.onTextChanged(0, 1, 0);
+        return mIndex.getStart(0);
+    }
+
+    @Benchmark
+    public int typeAtEnd() {
+        mIndex.onTextChanged(mLength, 0, 1);
+        mIndex.onTextChanged(mLength, 1, 0);
+        return mIndex.size();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding, removing and looking up the entries of a {@link SpanRegistry}, each
+ * of which should be O(1) at any size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpanRegistryBenchmark {
+
+    static final class Span extends SpanRegistry.Entry {
+    }
+
+    @Param({ "10", "1000", "100000" })
+    public int size;
+
+    private SpanRegistry<Span> mRegistry;
+    private Span[] mSpans;
+    private Object[] mKeys;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mRegistry = new SpanRegistry<Span>();
+        mSpans = new Span[size];
+        mKeys = new Object[size];
+        for (int i = 0; i < size; i++) {
+            mSpans[i] = new Span();
+            mKeys[i] = "item" + i;
+            mRegistry.add(mSpans[i], mKeys[i]);
+        }
+    }
+
+    @Benchmark
+    public Span removeAndAdd() {
+        mNext = (mNext + 7919) % size;
+        final Span span = mSpans[mNext];
+        mRegistry.remove(span);
+        mRegistry.add(span, mKeys[mNext]);
+        return span;
+    }
+
+    @Benchmark
+    public Span get() {
+        mNext = (mNext + 7919) % size;
+        return mRegistry.get(mKeys[mNext]);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayList;
+
+/**
+ * A pool of ARGB_8888 bitmaps bounded by a memory budget.
+ *
+ * The budget covers the bitmaps in use as well as the idle ones. A bitmap is
+ * reused for any request which fits into it without wasting more than half of
+ * its pixels. Idle bitmaps are recycled, oldest first, to make room for new
+ * ones, and a request which does not fit into the budget at all is denied.
+ */
+public class BitmapPool {
+
+    private final ArrayList<Bitmap> mBitmaps = new ArrayList<Bitmap>();
+    private int mMaxBytes;
+    private int mBytes;
+    private int mInUseBytes;
+    private int mHitCount;
+    private int mMissCount;
+    private int mDeniedCount;
+
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Get a cleared bitmap at least as large as w x h.
+     *
+     * @return null if the bitmaps in use leave no room for it in the budget.
+     */
+    public synchronized Bitmap acquire(int w, int h) {
+        final int area = w * h;
+        int best = -1;
+        int bestArea = Integer.MAX_VALUE;
+
+        for (int i = 0, count = mBitmaps.size(); i < count; i++) {
+            Bitmap b = mBitmaps.get(i);
+            final int bw = b.getWidth();
+            final int bh = b.getHeight();
+            if (bw >= w && bh >= h) {
+                final int a = bw * bh;
+                if (a < bestArea && a <= area * 2) {
+                    best = i;
+                    bestArea = a;
+                }
+            }
+        }
+
+        if (best < 0) {
+            final int size = Math.max(w, 1) * Math.max(h, 1) * 4;
+            trimToSize(mMaxBytes - mInUseBytes - size);
+            if (mInUseBytes + mBytes + size > mMaxBytes) {
+                mDeniedCount++;
+                return null;
+            }
+            mMissCount++;
+            Bitmap bitmap = Bitmap.createBitmap(Math.max(w, 1), Math.max(h, 1),
+                                                Bitmap.Config.ARGB_8888);
+            mInUseBytes += sizeOf(bitmap);
+            return bitmap;
+        }
+
+        mHitCount++;
+        Bitmap bitmap = mBitmaps.remove(best);
+        final int size = sizeOf(bitmap);
+        mBytes -= size;
+        mInUseBytes += size;
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap acquired from the pool back.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+
+        final int size = sizeOf(bitmap);
+        mInUseBytes = Math.max(0, mInUseBytes - size);
+        if (mInUseBytes + size > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        trimToSize(mMaxBytes - mInUseBytes - size);
+        mBitmaps.add(bitmap);
+        mBytes += size;
+    }
+
+    /**
+     * Change the budget. The bitmaps in use are kept until released, even if
+     * they no longer fit.
+     */
+    public synchronized void resize(int maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes - mInUseBytes);
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Return the size of the idle bitmaps, in bytes.
+     */
+    public synchronized int size() {
+        return mBytes;
+    }
+
+    /**
+     * Return the size of the bitmaps in use, in bytes.
+     */
+    public synchronized int inUseSize() {
+        return mInUseBytes;
+    }
+
+    public synchronized int maxSize() {
+        return mMaxBytes;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Return the number of requests denied for lack of room in the budget.
+     */
+    public synchronized int deniedCount() {
+        return mDeniedCount;
+    }
+
+    private void trimToSize(int maxBytes) {
+        while (mBytes > maxBytes && !mBitmaps.isEmpty()) {
+            Bitmap b = mBitmaps.remove(0);
+            mBytes -= sizeOf(b);
+            b.recycle();
+        }
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
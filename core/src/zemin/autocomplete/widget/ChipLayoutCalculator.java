@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+/**
+ * Computes the layer insets and the overall bounds of a chip composed by a
+ * stack of span layers.
+ *
+ * Layers are fed in through {@link #begin()}, {@link #setLayer} and
+ * {@link #end()}. The input and the result are kept in primitive arrays which
+ * are reused across calls, and the layout is only recomputed when any of the
+ * layer dimensions, margins or gravities differ from the previous round.
+ *
+ * This class has no Android dependencies.
+ *
+ * @see SpannedAutoCompleteView.SpanLayer
+ */
+public class ChipLayoutCalculator {
+
+    public static final int CENTER         = 0;
+    public static final int LEFT           = 1;
+    public static final int TOP            = 2;
+    public static final int RIGHT          = 3;
+    public static final int BOTTOM         = 4;
+
+    // input: gravity, width, height, leftMargin, topMargin, rightMargin, bottomMargin
+    private static final int IN_STRIDE = 7;
+
+    // output: left, top, right, bottom insets
+    private static final int OUT_STRIDE = 4;
+
+    private int[] mInput;
+    private int[] mInsets;
+    private int mCount;
+    private int mCursor;
+    private boolean mDirty = true;
+
+    private int mWidth;
+    private int mHeight;
+    private int mComputeCount;
+
+    public ChipLayoutCalculator() {
+        this(4);
+    }
+
+    public ChipLayoutCalculator(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mInput = new int[capacity * IN_STRIDE];
+        mInsets = new int[capacity * OUT_STRIDE];
+    }
+
+    /**
+     * Start feeding layers. Must be followed by {@link #setLayer} for each layer
+     * (from the bottom to the top of the stack) and {@link #end()}.
+     */
+    public ChipLayoutCalculator begin() {
+        mCursor = 0;
+        return this;
+    }
+
+    /**
+     * Feed the next layer.
+     */
+    public ChipLayoutCalculator setLayer(int gravity, int width, int height,
+                                         int leftMargin, int topMargin,
+                                         int rightMargin, int bottomMargin) {
+        final int idx = mCursor * IN_STRIDE;
+        ensureCapacity(mCursor + 1);
+
+        final int[] in = mInput;
+        if (mCursor >= mCount ||
+            in[idx] != gravity ||
+            in[idx + 1] != width ||
+            in[idx + 2] != height ||
+            in[idx + 3] != leftMargin ||
+            in[idx + 4] != topMargin ||
+            in[idx + 5] != rightMargin ||
+            in[idx + 6] != bottomMargin) {
+
+            in[idx] = gravity;
+            in[idx + 1] = width;
+            in[idx + 2] = height;
+            in[idx + 3] = leftMargin;
+            in[idx + 4] = topMargin;
+            in[idx + 5] = rightMargin;
+            in[idx + 6] = bottomMargin;
+            mDirty = true;
+        }
+
+        mCursor++;
+        return this;
+    }
+
+    /**
+     * Finish feeding layers, and compute the layout if anything has changed.
+     *
+     * @return true if the layout was recomputed.
+     */
+    public boolean end() {
+        if (mCursor != mCount) {
+            mCount = mCursor;
+            mDirty = true;
+        }
+
+        if (!mDirty) {
+            return false;
+        }
+
+        compute();
+        mDirty = false;
+        mComputeCount++;
+        return true;
+    }
+
+    /**
+     * Force the next {@link #end()} to recompute the layout.
+     */
+    public void invalidate() {
+        mDirty = true;
+    }
+
+    public int getLayerCount() {
+        return mCount;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getLeftInset(int layer) {
+        return mInsets[layer * OUT_STRIDE];
+    }
+
+    public int getTopInset(int layer) {
+        return mInsets[layer * OUT_STRIDE + 1];
+    }
+
+    public int getRightInset(int layer) {
+        return mInsets[layer * OUT_STRIDE + 2];
+    }
+
+    public int getBottomInset(int layer) {
+        return mInsets[layer * OUT_STRIDE + 3];
+    }
+
+    /**
+     * Number of times the layout has actually been computed.
+     */
+    public int getComputeCount() {
+        return mComputeCount;
+    }
+
+    private void ensureCapacity(int count) {
+        if (count * IN_STRIDE > mInput.length) {
+            final int capacity = Math.max(count, mInput.length / IN_STRIDE * 2);
+            int[] input = new int[capacity * IN_STRIDE];
+            System.arraycopy(mInput, 0, input, 0, mInput.length);
+            mInput = input;
+            mInsets = new int[capacity * OUT_STRIDE];
+            mDirty = true;
+        }
+    }
+
+    private void compute() {
+        final int[] in = mInput;
+        final int[] out = mInsets;
+        final int count = mCount;
+
+        int w, h, lw, lh, rw, rh, tw, th, bw, bh, cw, ch;
+        lw = lh = rw = rh = tw = th = bw = bh = cw = ch = 0;
+
+        for (int i = 0, idx = 0; i < count; i++, idx += IN_STRIDE) {
+            w = in[idx + 1] + in[idx + 3] + in[idx + 5];
+            h = in[idx + 2] + in[idx + 4] + in[idx + 6];
+
+            switch (in[idx]) {
+            case LEFT:
+                lw = Math.max(lw, w);
+                lh = Math.max(lh, h);
+                break;
+
+            case RIGHT:
+                rw = Math.max(rw, w);
+                rh = Math.max(rh, h);
+                break;
+
+            case TOP:
+                tw = Math.max(tw, w);
+                th = Math.max(th, h);
+                break;
+
+            case BOTTOM:
+                bw = Math.max(bw, w);
+                bh = Math.max(bh, h);
+                break;
+
+            case CENTER:
+                cw = Math.max(cw, w);
+                ch = Math.max(ch, h);
+                break;
+            }
+        }
+
+        w = lw + rw + cw;
+        w = Math.max(w, tw);
+        w = Math.max(w, bw);
+
+        h = th + bh + ch;
+        h = Math.max(h, lh);
+        h = Math.max(h, rh);
+
+        int l, t, r, b, o;
+        l = t = r = b = 0;
+
+        for (int i = 0, idx = 0, odx = 0; i < count;
+             i++, idx += IN_STRIDE, odx += OUT_STRIDE) {
+
+            final int width = in[idx + 1];
+            final int height = in[idx + 2];
+
+            switch (in[idx]) {
+            case LEFT:
+                l = in[idx + 3];
+                r = w - l - width;
+                t = b = (h - height) / 2;
+                break;
+
+            case RIGHT:
+                r = in[idx + 5];
+                l = w - r - width;
+                t = b = (h - height) / 2;
+                break;
+
+            case TOP:
+                t = in[idx + 4];
+                b = h - t - height;
+                l = r = (w - width) / 2;
+                break;
+
+            case BOTTOM:
+                b = in[idx + 6];
+                t = h - b - height;
+                l = r = (w - width) / 2;
+                break;
+
+            case CENTER:
+                o = (w - lw - rw - cw) / 2;
+                l = lw + o;
+                r = rw + o;
+                o = (h - th - bh - ch) / 2;
+                t = th + o;
+                b = bh + o;
+                break;
+            }
+
+            out[odx] = l;
+            out[odx + 1] = t;
+            out[odx + 2] = r;
+            out[odx + 3] = b;
+        }
+
+        mWidth = w;
+        mHeight = h;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.text.style.ImageSpan;
+
+/**
+ * An {@link ImageSpan} whose drawable can be replaced, so the span can be
+ * recycled.
+ *
+ * {@link android.text.style.DynamicDrawableSpan} keeps the first drawable it
+ * draws, hence size and drawing are done here.
+ */
+class ChipSpan extends ImageSpan {
+
+    private Drawable mDrawable;
+
+    ChipSpan() {
+        super((Drawable) null, ALIGN_BOTTOM);
+    }
+
+    void setDrawable(Drawable drawable) {
+        mDrawable = drawable;
+    }
+
+    @Override
+    public Drawable getDrawable() {
+        return mDrawable;
+    }
+
+    @Override
+    public int getSize(Paint paint, CharSequence text, int start, int end,
+                       Paint.FontMetricsInt fm) {
+        if (mDrawable == null) {
+            return 0;
+        }
+        final Rect rect = mDrawable.getBounds();
+        if (fm != null) {
+            fm.ascent = -rect.bottom;
+            fm.descent = 0;
+            fm.top = fm.ascent;
+            fm.bottom = 0;
+        }
+        return rect.right;
+    }
+
+    @Override
+    public void draw(Canvas canvas, CharSequence text, int start, int end, float x,
+                     int top, int y, int bottom, Paint paint) {
+        if (mDrawable == null) {
+            return;
+        }
+        final int saveCount = canvas.save();
+        canvas.translate(x, bottom - mDrawable.getBounds().bottom);
+        mDrawable.draw(canvas);
+        canvas.restoreToCount(saveCount);
+    }
+}
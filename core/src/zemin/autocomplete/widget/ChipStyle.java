@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import android.graphics.drawable.Drawable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable description of a chip: a background and a stack of layers, each
+ * with a gravity and margins. A layer is either static, with a drawable shared
+ * by every chip, or variable, with a drawable supplied per chip by a
+ * {@link ChipBinder}.
+ *
+ * If no layer takes its size from the bound drawable, the layout of the chip is
+ * computed once when the style is built, and shared by every chip.
+ *
+ * @see SpannedAutoCompleteView#setChipStyle
+ */
+public final class ChipStyle {
+
+    public static final int CENTER         = ChipLayoutCalculator.CENTER;
+    public static final int LEFT           = ChipLayoutCalculator.LEFT;
+    public static final int TOP            = ChipLayoutCalculator.TOP;
+    public static final int RIGHT          = ChipLayoutCalculator.RIGHT;
+    public static final int BOTTOM         = ChipLayoutCalculator.BOTTOM;
+
+    /**
+     * Width or height of a variable layer which takes the intrinsic size of the
+     * bound drawable.
+     */
+    public static final int WRAP_CONTENT   = -1;
+
+    public interface ChipBinder {
+
+        /**
+         * Supply the drawables of the variable layers of the chip of
+         * dropdownItem, in the order the layers were added. Each chip needs its
+         * own drawables. Called on the UI thread.
+         */
+        void bind(Object dropdownItem, Drawable[] drawables);
+    }
+
+    // per layer: gravity, width, height, leftMargin, topMargin, rightMargin, bottomMargin
+    static final int STRIDE = 7;
+
+    final Drawable background;
+    final Drawable[] drawables;
+    final int[] geometry;
+    final int variableCount;
+    final ChipLayoutCalculator layout;
+
+    private ChipStyle(Builder b) {
+        final int count = b.mDrawables.size();
+        background = b.mBackground;
+        drawables = b.mDrawables.toArray(new Drawable[count]);
+        geometry = new int[count * STRIDE];
+        for (int i = 0; i < geometry.length; i++) {
+            geometry[i] = b.mGeometry.get(i);
+        }
+
+        int variables = 0;
+        boolean wrap = false;
+        for (int i = 0; i < count; i++) {
+            if (drawables[i] == null) {
+                variables++;
+                wrap |= geometry[i * STRIDE + 1] < 0 || geometry[i * STRIDE + 2] < 0;
+            }
+        }
+        variableCount = variables;
+
+        if (wrap) {
+            layout = null;
+        } else {
+            layout = new ChipLayoutCalculator(count);
+            feed(layout, null, 0);
+        }
+    }
+
+    /**
+     * Number of drawables of a chip, including the background.
+     */
+    public int getDrawableCount() {
+        return drawables.length + (background != null ? 1 : 0);
+    }
+
+    public int getLayerCount() {
+        return drawables.length;
+    }
+
+    public int getVariableLayerCount() {
+        return variableCount;
+    }
+
+    /**
+     * Return true if the layout is computed once for every chip.
+     */
+    public boolean isLayoutStatic() {
+        return layout != null;
+    }
+
+    /**
+     * Feed the layers to the calculator. The sizes of wrapped variable layers
+     * are taken from the drawables of the chip, starting at offset.
+     */
+    void feed(ChipLayoutCalculator calculator, Drawable[] layers, int offset) {
+        final int[] g = geometry;
+        calculator.begin();
+        for (int i = 0, idx = 0; i < drawables.length; i++, idx += STRIDE) {
+            int width = g[idx + 1];
+            int height = g[idx + 2];
+            if (width < 0) {
+                width = Math.max(layers[offset + i].getIntrinsicWidth(), 0);
+            }
+            if (height < 0) {
+                height = Math.max(layers[offset + i].getIntrinsicHeight(), 0);
+            }
+            calculator.setLayer(g[idx], width, height,
+                                g[idx + 3], g[idx + 4], g[idx + 5], g[idx + 6]);
+        }
+        calculator.end();
+    }
+
+    public static class Builder {
+        private final List<Drawable> mDrawables = new ArrayList<Drawable>();
+        private final List<Integer> mGeometry = new ArrayList<Integer>();
+        private Drawable mBackground;
+
+        /**
+         * The background is placed at the bottom of the stack, and stretched to
+         * the size of the chip.
+         */
+        public Builder setBackground(Drawable background) {
+            mBackground = background;
+            return this;
+        }
+
+        /**
+         * Add a layer showing the same drawable on every chip.
+         */
+        public Builder addLayer(Drawable drawable, int gravity, int l, int t, int r, int b) {
+            if (drawable == null) {
+                throw new IllegalArgumentException("drawable is null.");
+            }
+            return add(drawable, gravity, Math.max(drawable.getIntrinsicWidth(), 0),
+                       Math.max(drawable.getIntrinsicHeight(), 0), l, t, r, b);
+        }
+
+        /**
+         * Add a layer whose drawable is supplied by the binder, and sized to it.
+         */
+        public Builder addVariableLayer(int gravity, int l, int t, int r, int b) {
+            return add(null, gravity, WRAP_CONTENT, WRAP_CONTENT, l, t, r, b);
+        }
+
+        /**
+         * Add a layer whose drawable is supplied by the binder. With a fixed
+         * width and height, the layout does not depend on the bound drawable.
+         */
+        public Builder addVariableLayer(int gravity, int width, int height,
+                                        int l, int t, int r, int b) {
+            return add(null, gravity, width, height, l, t, r, b);
+        }
+
+        public ChipStyle build() {
+            return new ChipStyle(this);
+        }
+
+        private Builder add(Drawable drawable, int gravity, int width, int height,
+                            int l, int t, int r, int b) {
+            mDrawables.add(drawable);
+            mGeometry.add(gravity);
+            mGeometry.add(width);
+            mGeometry.add(height);
+            mGeometry.add(l);
+            mGeometry.add(t);
+            mGeometry.add(r);
+            mGeometry.add(b);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+/**
+ * A case-insensitive subsequence scorer, e.g. "jsmi" matches "John Smith".
+ *
+ * Each matched character scores a point. Characters at the start of a word
+ * (after a space or punctuation, or an upper case letter after a lower case
+ * one) and consecutive characters get a bonus, and skipped characters cost a
+ * small penalty.
+ *
+ * This class has no Android dependencies, and does not allocate.
+ */
+public class FuzzyScorer implements SuggestionScorer {
+
+    private static final int SCORE_MATCH = 16;
+    private static final int BONUS_FIRST = 24;
+    private static final int BONUS_BOUNDARY = 16;
+    private static final int BONUS_CONSECUTIVE = 12;
+    private static final int PENALTY_GAP = 1;
+
+    @Override
+    public int score(CharSequence candidate, CharSequence query) {
+        return match(candidate, query, null);
+    }
+
+    /**
+     * Fill ranges with the [start, end) pairs of the matched characters of the
+     * candidate, for highlighting. ranges must hold at least
+     * 2 * query.length() ints.
+     *
+     * @return the number of ranges, or -1 if the candidate does not match.
+     */
+    public int getMatchRanges(CharSequence candidate, CharSequence query, int[] ranges) {
+        return match(candidate, query, ranges);
+    }
+
+    /**
+     * Return the score if ranges is null. Otherwise, fill the ranges and return
+     * their count.
+     */
+    private static int match(CharSequence candidate, CharSequence query, int[] ranges) {
+        final int n = candidate.length();
+        final int m = query.length();
+        if (m == 0) {
+            return 0;
+        }
+        if (m > n) {
+            return -1;
+        }
+
+        int score = 0;
+        int qi = 0;
+        int last = -2;
+        int rangeCount = 0;
+
+        for (int i = 0; i < n && qi < m; i++) {
+            if (!equalsIgnoreCase(candidate.charAt(i), query.charAt(qi))) {
+                continue;
+            }
+
+            // prefer a word boundary further on, unless this one is consecutive
+            if (i != last + 1 && !isBoundary(candidate, i)) {
+                final int b = findBoundary(candidate, i + 1, query.charAt(qi));
+                if (b > 0 && isSubsequence(candidate, b + 1, query, qi + 1)) {
+                    i = b;
+                }
+            }
+
+            score += SCORE_MATCH;
+            if (i == 0) {
+                score += BONUS_FIRST;
+            } else if (isBoundary(candidate, i)) {
+                score += BONUS_BOUNDARY;
+            }
+
+            if (i == last + 1) {
+                score += BONUS_CONSECUTIVE;
+                if (ranges != null) {
+                    ranges[rangeCount * 2 - 1] = i + 1;
+                }
+            } else {
+                if (last >= 0) {
+                    score -= PENALTY_GAP * (i - last - 1);
+                }
+                if (ranges != null) {
+                    ranges[rangeCount * 2] = i;
+                    ranges[rangeCount * 2 + 1] = i + 1;
+                }
+                rangeCount++;
+            }
+
+            last = i;
+            qi++;
+        }
+
+        if (qi < m) {
+            return -1;
+        }
+
+        if (ranges != null) {
+            return rangeCount;
+        }
+
+        // shorter candidates win ties
+        return Math.max(score - (n - last - 1) / 8, 0);
+    }
+
+    private static boolean isSubsequence(CharSequence s, int from,
+                                         CharSequence q, int qFrom) {
+        final int n = s.length();
+        final int m = q.length();
+        int qi = qFrom;
+        for (int i = from; i < n && qi < m; i++) {
+            if (equalsIgnoreCase(s.charAt(i), q.charAt(qi))) {
+                qi++;
+            }
+        }
+        return qi == m;
+    }
+
+    private static int findBoundary(CharSequence s, int from, char q) {
+        for (int i = from, n = s.length(); i < n; i++) {
+            if (equalsIgnoreCase(s.charAt(i), q) && isBoundary(s, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBoundary(CharSequence s, int i) {
+        if (i == 0) {
+            return true;
+        }
+        final char prev = s.charAt(i - 1);
+        final char c = s.charAt(i);
+        if (!Character.isLetterOrDigit(prev)) {
+            return true;
+        }
+        return Character.isLowerCase(prev) && Character.isUpperCase(c);
+    }
+
+    private static boolean equalsIgnoreCase(char a, char b) {
+        return a == b || Character.toLowerCase(a) == Character.toLowerCase(b);
+    }
+}
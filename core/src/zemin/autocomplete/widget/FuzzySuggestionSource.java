@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A suggestion source which ranks every item with a {@link SuggestionScorer}
+ * (a {@link FuzzyScorer} by default), and returns the best ones.
+ *
+ * Only the best k candidates are kept during a query, in a {@link TopKSelector},
+ * so a query costs O(n * log(k)) with no allocation per candidate. The results
+ * are ranked, so they are never refined for a longer constraint, see
+ * {@link SuggestionSource.Ranked}.
+ *
+ * This class has no Android dependencies.
+ */
+public class FuzzySuggestionSource<T> implements SuggestionSource<T>,
+                                                SuggestionSource.KeyLookup<T>,
+                                                SuggestionSource.Ranked,
+                                                SuggestionSource.Cancellable<T> {
+
+    private static final int CANCEL_CHECK_INTERVAL = 4096;
+
+    private final String[] mKeys;
+    private final Object[] mItems;
+    private final KeyFunction<T> mKeyFunction;
+    private final SuggestionScorer mScorer;
+    // lower case key to item, built on the first lookup
+    private volatile HashMap<String, Object> mLookup;
+
+    /**
+     * Match the items by {@link Object#toString()}, with a {@link FuzzyScorer}.
+     */
+    public FuzzySuggestionSource(Collection<? extends T> items) {
+        this(items, null, new FuzzyScorer());
+    }
+
+    public FuzzySuggestionSource(Collection<? extends T> items, KeyFunction<T> keyFunction,
+                                 SuggestionScorer scorer) {
+        mKeyFunction = keyFunction;
+        mScorer = scorer;
+        mItems = items.toArray();
+        mKeys = new String[mItems.length];
+        for (int i = 0; i < mItems.length; i++) {
+            @SuppressWarnings("unchecked")
+            T item = (T) mItems[i];
+            mKeys[i] = getKey(item);
+        }
+    }
+
+    public SuggestionScorer getScorer() {
+        return mScorer;
+    }
+
+    public int size() {
+        return mKeys.length;
+    }
+
+    @Override
+    public List<T> query(CharSequence constraint, int limit) {
+        return query(constraint, limit, null);
+    }
+
+    /**
+     * The cancellation is checked every few thousand items.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> query(CharSequence constraint, int limit, Cancellation cancellation) {
+        if (constraint == null || limit <= 0 || mKeys.length == 0) {
+            return new ArrayList<T>(0);
+        }
+
+        final TopKSelector selector = new TopKSelector(Math.min(limit, mKeys.length));
+        final SuggestionScorer scorer = mScorer;
+        final String[] keys = mKeys;
+        for (int i = 0, count = keys.length; i < count; i++) {
+            if (i % CANCEL_CHECK_INTERVAL == 0 && cancellation != null &&
+                cancellation.isCancelled()) {
+                return null;
+            }
+            final int score = scorer.score(keys[i], constraint);
+            if (score >= 0) {
+                selector.offer(i, score);
+            }
+        }
+
+        final int[] indices = new int[selector.size()];
+        final int count = selector.drainTo(indices);
+        final List<T> results = new ArrayList<T>(count);
+        for (int i = 0; i < count; i++) {
+            results.add((T) mItems[indices[i]]);
+        }
+        return results;
+    }
+
+    /**
+     * Look the key up in a hash map, built in O(n) on the first call.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T lookup(CharSequence key) {
+        HashMap<String, Object> lookup = mLookup;
+        if (lookup == null) {
+            lookup = new HashMap<String, Object>(mKeys.length * 4 / 3 + 1);
+            // backwards, so the first item of a key wins
+            for (int i = mKeys.length - 1; i >= 0; i--) {
+                lookup.put(mKeys[i].toLowerCase(Locale.ROOT), mItems[i]);
+            }
+            mLookup = lookup;
+        }
+        return (T) lookup.get(key.toString().toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public boolean matches(T item, CharSequence constraint) {
+        return mScorer.score(getKey(item), constraint) >= 0;
+    }
+
+    private String getKey(T item) {
+        return mKeyFunction != null ? mKeyFunction.getKey(item) : String.valueOf(item);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import java.util.Arrays;
+
+/**
+ * A {@link MetricsListener} which keeps the counters, and the most recent
+ * samples of each timing for percentiles.
+ *
+ * This class has no Android dependencies.
+ */
+public class MetricsAggregator implements MetricsListener {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final long[][] mSamples;
+    private final long[] mSampleCounts = new long[TIMING_COUNT];
+    private final long[] mTotals = new long[TIMING_COUNT];
+    private final long[] mMax = new long[TIMING_COUNT];
+    private final long[] mCounters = new long[COUNTER_COUNT];
+
+    public MetricsAggregator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of recent samples kept per timing.
+     */
+    public MetricsAggregator(int capacity) {
+        mSamples = new long[TIMING_COUNT][Math.max(capacity, 1)];
+    }
+
+    @Override
+    public synchronized void onTiming(int timing, long nanos) {
+        if (timing < 0 || timing >= TIMING_COUNT) {
+            return;
+        }
+        final long[] samples = mSamples[timing];
+        samples[(int) (mSampleCounts[timing] % samples.length)] = nanos;
+        mSampleCounts[timing]++;
+        mTotals[timing] += nanos;
+        if (nanos > mMax[timing]) {
+            mMax[timing] = nanos;
+        }
+    }
+
+    @Override
+    public synchronized void onCounter(int counter, int delta) {
+        if (counter >= 0 && counter < COUNTER_COUNT) {
+            mCounters[counter] += delta;
+        }
+    }
+
+    /**
+     * Return the number of samples of the timing ever recorded.
+     */
+    public synchronized long getCount(int timing) {
+        return mSampleCounts[timing];
+    }
+
+    public synchronized long getTotal(int timing) {
+        return mTotals[timing];
+    }
+
+    public synchronized long getMax(int timing) {
+        return mMax[timing];
+    }
+
+    public synchronized long getAverage(int timing) {
+        final long count = mSampleCounts[timing];
+        return count > 0 ? mTotals[timing] / count : 0;
+    }
+
+    /**
+     * Return the percentile (0-100) of the recent samples of the timing, by
+     * nearest rank, or 0 if there is no sample.
+     */
+    public synchronized long getPercentile(int timing, double percentile) {
+        final long[] samples = mSamples[timing];
+        final int n = (int) Math.min(mSampleCounts[timing], samples.length);
+        if (n == 0) {
+            return 0;
+        }
+
+        final long[] sorted = Arrays.copyOf(samples, n);
+        Arrays.sort(sorted);
+        final int rank = (int) Math.ceil(percentile / 100 * n);
+        return sorted[Math.min(Math.max(rank, 1), n) - 1];
+    }
+
+    public synchronized long getCounter(int counter) {
+        return mCounters[counter];
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(mSampleCounts, 0);
+        Arrays.fill(mTotals, 0);
+        Arrays.fill(mMax, 0);
+        Arrays.fill(mCounters, 0);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+/**
+ * Receives measurements of the span operations of a
+ * {@link SpannedAutoCompleteView}, see
+ * {@link SpannedAutoCompleteView#setMetricsListener}.
+ *
+ * Timings are in nanoseconds. Everything is reported on the UI thread, except
+ * {@link #TIMING_COMPOSE} which is reported on the span executor if one is set.
+ */
+public interface MetricsListener {
+
+    /** convertSelectionToString(), i.e. accepting a dropdownItem. */
+    int TIMING_CONVERT_SELECTION    = 0;
+
+    /** Laying out and composing the image of a span. */
+    int TIMING_COMPOSE              = 1;
+
+    /** Cloning the span layer drawables of a span. */
+    int TIMING_CLONE_DRAWABLES      = 2;
+
+    /** Replacing the text with spans, including the relayout of the view. */
+    int TIMING_TEXT_REPLACE         = 3;
+
+    /** Handling a span watcher callback. */
+    int TIMING_SPAN_WATCHER         = 4;
+
+    int TIMING_COUNT                = 5;
+
+    int COUNTER_SPANS_CREATED       = 0;
+    int COUNTER_SPANS_REMOVED       = 1;
+    int COUNTER_DRAWABLES_ALLOCATED = 2;
+    int COUNTER_CACHE_HITS          = 3;
+    int COUNTER_CACHE_MISSES        = 4;
+
+    int COUNTER_COUNT               = 5;
+
+    void onTiming(int timing, long nanos);
+
+    void onCounter(int counter, int delta);
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+/**
+ * A bounded pool of reusable objects. Acquiring from an empty pool creates a
+ * new object, and the number of objects created so far is counted, so a
+ * caller can check that steady use of the pool does not allocate.
+ *
+ * Not thread safe. This class has no Android dependencies.
+ */
+public abstract class ObjectPool<T> {
+
+    private final Object[] mPool;
+    private int mSize;
+    private int mCreated;
+
+    public ObjectPool(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0.");
+        }
+        mPool = new Object[maxSize];
+    }
+
+    /**
+     * Create a new object, when the pool is empty.
+     */
+    protected abstract T create();
+
+    /**
+     * Return a pooled object, or a new one if the pool is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if (mSize > 0) {
+            final T object = (T) mPool[--mSize];
+            mPool[mSize] = null;
+            return object;
+        }
+        mCreated++;
+        return create();
+    }
+
+    /**
+     * Give an object back to the pool.
+     *
+     * @return false if the pool is full, the object is then dropped.
+     */
+    public boolean release(T object) {
+        for (int i = 0; i < mSize; i++) {
+            if (mPool[i] == object) {
+                throw new IllegalStateException("object already in the pool.");
+            }
+        }
+        if (mSize == mPool.length) {
+            return false;
+        }
+        mPool[mSize++] = object;
+        return true;
+    }
+
+    /**
+     * Return the number of pooled objects.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Return the number of objects created by {@link #acquire()} so far.
+     */
+    public int getCreatedCount() {
+        return mCreated;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An immutable, case-insensitive prefix index over a set of items.
+ *
+ * Keys are kept in a sorted array, and a query binary searches the first key
+ * starting with the prefix, then walks forward. A query costs
+ * O(|prefix| * log(n) + k) for k results, regardless of the data set size.
+ *
+ * This class has no Android dependencies.
+ */
+public class PrefixIndex<T> implements SuggestionSource<T>, SuggestionSource.KeyLookup<T> {
+
+    private final String[] mKeys;
+    private final Object[] mItems;
+    private final KeyFunction<T> mKeyFunction;
+
+    /**
+     * Index the items by {@link Object#toString()}.
+     */
+    public PrefixIndex(Collection<? extends T> items) {
+        this(items, null);
+    }
+
+    public PrefixIndex(Collection<? extends T> items, KeyFunction<T> keyFunction) {
+        mKeyFunction = keyFunction;
+
+        final int count = items.size();
+        final String[] keys = new String[count];
+        final Object[] values = items.toArray();
+        final Integer[] order = new Integer[count];
+
+        for (int i = 0; i < count; i++) {
+            @SuppressWarnings("unchecked")
+            T item = (T) values[i];
+            keys[i] = normalize(getKey(item));
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return keys[a].compareTo(keys[b]);
+                }
+            });
+
+        mKeys = new String[count];
+        mItems = new Object[count];
+        for (int i = 0; i < count; i++) {
+            mKeys[i] = keys[order[i]];
+            mItems[i] = values[order[i]];
+        }
+    }
+
+    public int size() {
+        return mKeys.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> query(CharSequence constraint, int limit) {
+        final String prefix = normalize(constraint);
+        final List<T> results = new ArrayList<T>(Math.min(limit, 16));
+
+        for (int i = lowerBound(prefix), count = mKeys.length;
+             i < count && results.size() < limit && mKeys[i].startsWith(prefix); i++) {
+            results.add((T) mItems[i]);
+        }
+        return results;
+    }
+
+    /**
+     * Binary search the key, in O(|key| * log(n)).
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T lookup(CharSequence key) {
+        final String k = normalize(key);
+        final int i = lowerBound(k);
+        return i < mKeys.length && mKeys[i].equals(k) ? (T) mItems[i] : null;
+    }
+
+    @Override
+    public boolean matches(T item, CharSequence constraint) {
+        return normalize(getKey(item)).startsWith(normalize(constraint));
+    }
+
+    /**
+     * Index of the first key not less than the prefix.
+     */
+    private int lowerBound(String prefix) {
+        int lo = 0;
+        int hi = mKeys.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (mKeys[mid].compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private String getKey(T item) {
+        return mKeyFunction != null ? mKeyFunction.getKey(item) : String.valueOf(item);
+    }
+
+    private static String normalize(CharSequence s) {
+        return s != null ? s.toString().toLowerCase(Locale.ROOT) : "";
+    }
+}
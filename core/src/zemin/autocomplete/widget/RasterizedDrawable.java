@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * A drawable which renders its source drawable once into a pooled bitmap, and
+ * then draws the bitmap. The source is re-rendered only after it invalidates
+ * itself.
+ *
+ * The bitmap is held as long as the drawable is referenced, see {@link #ref()}
+ * and {@link #unref()}. Once unreferenced, the bitmap goes back to the pool. If
+ * the drawable is drawn again, a new bitmap is acquired.
+ *
+ * When the pool has no room left for a bitmap, the source is drawn as is, and
+ * a bitmap is asked for again on the next draw.
+ */
+class RasterizedDrawable extends Drawable implements Drawable.Callback {
+
+    private final Drawable mSource;
+    private final BitmapPool mPool;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mSrcRect = new Rect();
+    private Canvas mCanvas;
+    private Bitmap mBitmap;
+    private boolean mDirty = true;
+    private int mRefCount;
+
+    RasterizedDrawable(Drawable source, BitmapPool pool) {
+        mSource = source;
+        mPool = pool;
+        mSource.setCallback(this);
+    }
+
+    Drawable getSource() {
+        return mSource;
+    }
+
+    void ref() {
+        mRefCount++;
+    }
+
+    void unref() {
+        if (--mRefCount <= 0) {
+            mRefCount = 0;
+            recycleBitmap();
+        }
+    }
+
+    private void recycleBitmap() {
+        if (mBitmap != null) {
+            mPool.release(mBitmap);
+            mBitmap = null;
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Render the source ahead of the first draw. This may be called off the UI
+     * thread, as long as the drawable is not shown yet.
+     */
+    void prepare() {
+        if (mDirty || mBitmap == null) {
+            rasterize();
+        }
+    }
+
+    private void rasterize() {
+        final Rect bounds = getBounds();
+        final int w = bounds.width();
+        final int h = bounds.height();
+
+        if (mBitmap != null &&
+            (mBitmap.getWidth() < w || mBitmap.getHeight() < h)) {
+            recycleBitmap();
+        }
+
+        if (mBitmap == null) {
+            mBitmap = mPool.acquire(w, h);
+            if (mBitmap == null) {
+                // over budget
+                return;
+            }
+        } else {
+            mBitmap.eraseColor(0);
+        }
+
+        if (mCanvas == null) {
+            mCanvas = new Canvas();
+        }
+        mCanvas.setBitmap(mBitmap);
+        mSource.setBounds(0, 0, w, h);
+        mSource.draw(mCanvas);
+        mCanvas.setBitmap(null);
+
+        mSrcRect.set(0, 0, w, h);
+        mDirty = false;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mDirty || mBitmap == null) {
+            rasterize();
+        }
+        if (mBitmap == null) {
+            mSource.setBounds(getBounds());
+            mSource.draw(canvas);
+            return;
+        }
+        canvas.drawBitmap(mBitmap, mSrcRect, getBounds(), mPaint);
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        mDirty = true;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mSource.getIntrinsicWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mSource.getIntrinsicHeight();
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+        mPaint.setColorFilter(cf);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        mDirty = true;
+        invalidateSelf();
+    }
+
+    @Override
+    public void scheduleDrawable(Drawable who, Runnable what, long when) {
+        scheduleSelf(what, when);
+    }
+
+    @Override
+    public void unscheduleDrawable(Drawable who, Runnable what) {
+        unscheduleSelf(what);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import java.util.Arrays;
+
+/**
+ * Finds a longest common subsequence of two sequences, i.e. the shortest edit
+ * script of deletions and insertions turning one into the other.
+ *
+ * This is Myers' O((n + m) * d) algorithm, where d is the number of edits, in
+ * its linear space variant. Common prefixes and suffixes are matched first, so
+ * small edits to long sequences are cheap.
+ *
+ * This class has no Android dependencies.
+ */
+public final class SequenceDiff {
+
+    private SequenceDiff() {
+    }
+
+    /**
+     * Match the elements of a against the elements of b, using equals.
+     *
+     * @return for each element of a, the index of the matched element of b, or
+     *         -1 if it must be deleted. Matched indices are increasing. The
+     *         unmatched elements of b must be inserted.
+     */
+    public static int[] diff(Object[] a, Object[] b) {
+        final int[] matches = new int[a.length];
+        Arrays.fill(matches, -1);
+
+        final int size = 2 * ((a.length + b.length + 1) / 2) + 3;
+        final int[] forward = new int[size];
+        final int[] backward = new int[size];
+        diff(a, 0, a.length, b, 0, b.length, matches, forward, backward);
+        return matches;
+    }
+
+    private static void diff(Object[] a, int aStart, int aEnd, Object[] b, int bStart, int bEnd,
+                             int[] matches, int[] forward, int[] backward) {
+        while (aStart < aEnd && bStart < bEnd && equal(a[aStart], b[bStart])) {
+            matches[aStart++] = bStart++;
+        }
+        while (aStart < aEnd && bStart < bEnd && equal(a[aEnd - 1], b[bEnd - 1])) {
+            matches[--aEnd] = --bEnd;
+        }
+        if (aStart == aEnd || bStart == bEnd) {
+            // only deletions or only insertions are left
+            return;
+        }
+
+        final int[] snake = findMiddleSnake(a, aStart, aEnd, b, bStart, bEnd, forward, backward);
+        final int x = snake[0];
+        final int y = snake[1];
+        final int u = snake[2];
+        final int v = snake[3];
+
+        diff(a, aStart, x, b, bStart, y, matches, forward, backward);
+        for (int i = x, j = y; i < u; i++, j++) {
+            matches[i] = j;
+        }
+        diff(a, u, aEnd, b, v, bEnd, matches, forward, backward);
+    }
+
+    /**
+     * Return the start and end of the middle snake, {x, y, u, v}, such that
+     * a[x..u) equals b[y..v).
+     */
+    private static int[] findMiddleSnake(Object[] a, int aStart, int aEnd,
+                                         Object[] b, int bStart, int bEnd,
+                                         int[] forward, int[] backward) {
+        final int n = aEnd - aStart;
+        final int m = bEnd - bStart;
+        final int delta = n - m;
+        final boolean odd = (delta & 1) != 0;
+        final int max = (n + m + 1) / 2;
+        final int offset = max + 1;
+
+        // furthest x reached on each diagonal k = x - y, from the start for the
+        // forward path, and from the end for the backward path
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                final int x0 = x;
+                final int y0 = y;
+                while (x < n && y < m && equal(a[aStart + x], b[bStart + y])) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+
+                final int c = delta - k;
+                if (odd && c >= -(d - 1) && c <= d - 1 && x + backward[offset + c] >= n) {
+                    return new int[] { aStart + x0, bStart + y0, aStart + x, bStart + y };
+                }
+            }
+
+            for (int c = -d; c <= d; c += 2) {
+                int x;
+                if (c == -d || (c != d && backward[offset + c - 1] < backward[offset + c + 1])) {
+                    x = backward[offset + c + 1];
+                } else {
+                    x = backward[offset + c - 1] + 1;
+                }
+                int y = x - c;
+                final int x0 = x;
+                final int y0 = y;
+                while (x < n && y < m && equal(a[aEnd - 1 - x], b[bEnd - 1 - y])) {
+                    x++;
+                    y++;
+                }
+                backward[offset + c] = x;
+
+                final int k = delta - c;
+                if (!odd && k >= -d && k <= d && x + forward[offset + k] >= n) {
+                    return new int[] { aEnd - x, bEnd - y, aEnd - x0, bEnd - y0 };
+                }
+            }
+        }
+
+        // not reached: the paths always meet by d = max
+        throw new IllegalStateException("no middle snake.");
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Coalesces span additions and removals, by item key, into a single diff.
+ *
+ * An item added and then removed cancels out. An item removed and then added
+ * again is reported as moved. Each change is O(1).
+ *
+ * This class has no Android dependencies.
+ */
+public class SpanChangeSet {
+
+    private static final class Change {
+        Object item;
+        // number of spans added minus number of spans removed
+        int net;
+        // true if the first change was a removal, i.e. the item had a span
+        final boolean existed;
+
+        Change(Object item, boolean existed) {
+            this.item = item;
+            this.existed = existed;
+        }
+    }
+
+    private final LinkedHashMap<Object, Change> mChanges = new LinkedHashMap<Object, Change>();
+
+    public void onAdded(Object itemKey, Object item) {
+        Change change = mChanges.get(itemKey);
+        if (change == null) {
+            change = new Change(item, false);
+            mChanges.put(itemKey, change);
+        }
+        change.item = item;
+        change.net++;
+    }
+
+    public void onRemoved(Object itemKey, Object item) {
+        Change change = mChanges.get(itemKey);
+        if (change == null) {
+            change = new Change(item, true);
+            mChanges.put(itemKey, change);
+        }
+        change.net--;
+    }
+
+    public boolean isEmpty() {
+        return mChanges.isEmpty();
+    }
+
+    public void clear() {
+        mChanges.clear();
+    }
+
+    /**
+     * Move the coalesced changes into the lists, in the order the items were
+     * first changed, and clear the set. An item whose spans were added or
+     * removed several times is listed as many times.
+     */
+    public void drain(List<Object> added, List<Object> removed, List<Object> moved) {
+        for (Change change : mChanges.values()) {
+            if (change.net > 0) {
+                for (int i = 0; i < change.net; i++) {
+                    added.add(change.item);
+                }
+            } else if (change.net < 0) {
+                for (int i = change.net; i < 0; i++) {
+                    removed.add(change.item);
+                }
+            } else if (change.existed) {
+                moved.add(change.item);
+            }
+        }
+        mChanges.clear();
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * An index of non-overlapping text ranges, sorted by offset.
+ *
+ * Looking up the range at or around an offset is O(log n). Text changes are
+ * applied as deltas, see {@link #onTextChanged(int, int, int)}: ranges before
+ * the change are untouched, and the ranges after it share a single pending
+ * shift instead of being moved one by one. The shift is applied to a range
+ * only once a later change lands before it, so a change costs O(log n) plus
+ * the number of ranges between it and the previous change: typing repeatedly
+ * at the same place, e.g. in front of all the chips, is O(log n) per change,
+ * while alternating between both ends of the text is O(n).
+ *
+ * The ranges are kept in an array, so adding or removing a range, e.g. when a
+ * chip is deleted, is O(n), if only a memory move.
+ *
+ * This class has no Android dependencies.
+ */
+public class SpanOffsetIndex<T> {
+
+    private static final class Node<T> {
+        final T item;
+        int start;
+        int end;
+        // true if mShift is still to be added to start and end
+        boolean shifted;
+
+        Node(T item, int start, int end) {
+            this.item = item;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final ArrayList<Node<T>> mNodes = new ArrayList<Node<T>>();
+    private final HashMap<T, Node<T>> mIndex = new HashMap<T, Node<T>>();
+
+    // the nodes from mSplit onwards are shifted by mShift
+    private int mSplit;
+    private int mShift;
+
+    /**
+     * Add the range of an item. If the item is already indexed, its range is
+     * updated.
+     */
+    public void add(T item, int start, int end) {
+        remove(item);
+
+        Node<T> node = new Node<T>(item, start, Math.max(start, end));
+        final int i = upperBound(start);
+        if (i < mSplit || mSplit == mNodes.size()) {
+            mSplit++;
+        } else {
+            node.start -= mShift;
+            node.end -= mShift;
+            node.shifted = true;
+        }
+        mNodes.add(i, node);
+        mIndex.put(item, node);
+    }
+
+    /**
+     * Remove the range of an item.
+     *
+     * @return false if the item is not indexed.
+     */
+    public boolean remove(T item) {
+        Node<T> node = mIndex.remove(item);
+        if (node == null) {
+            return false;
+        }
+
+        // several empty ranges may share the same start
+        int i = lowerBound(startOf(node));
+        while (mNodes.get(i) != node) {
+            i++;
+        }
+        mNodes.remove(i);
+        if (i < mSplit) {
+            mSplit--;
+        }
+        return true;
+    }
+
+    public boolean contains(T item) {
+        return mIndex.containsKey(item);
+    }
+
+    public int size() {
+        return mNodes.size();
+    }
+
+    public void clear() {
+        mNodes.clear();
+        mIndex.clear();
+        mSplit = 0;
+        mShift = 0;
+    }
+
+    public T get(int index) {
+        return mNodes.get(index).item;
+    }
+
+    public int getStart(int index) {
+        return startOf(mNodes.get(index));
+    }
+
+    public int getEnd(int index) {
+        return endOf(mNodes.get(index));
+    }
+
+    /**
+     * Return the start of the item's range, or -1 if the item is not indexed.
+     */
+    public int getStart(T item) {
+        Node<T> node = mIndex.get(item);
+        return node != null ? startOf(node) : -1;
+    }
+
+    /**
+     * Return the end of the item's range, or -1 if the item is not indexed.
+     */
+    public int getEnd(T item) {
+        Node<T> node = mIndex.get(item);
+        return node != null ? endOf(node) : -1;
+    }
+
+    /**
+     * Return the index of the last range starting before offset, or -1.
+     */
+    public int floor(int offset) {
+        return lowerBound(offset) - 1;
+    }
+
+    /**
+     * Return the index of the first range starting at or after offset, or
+     * {@link #size()}.
+     */
+    public int ceiling(int offset) {
+        return lowerBound(offset);
+    }
+
+    /**
+     * Apply a text change: before characters at start have been replaced by
+     * count characters. Ranges lying entirely in the replaced text are dropped.
+     *
+     * This is O(log n), plus the number of ranges between this change and the
+     * previous one, plus the number of ranges touched by the replaced text,
+     * plus an O(n) memory move if ranges are dropped.
+     */
+    public void onTextChanged(int start, int before, int count) {
+        final int delta = count - before;
+        final int oldEnd = start + before;
+
+        // the range just before start may extend into the change
+        int i = lowerBound(start);
+        if (i > 0 && endOf(mNodes.get(i - 1)) > start) {
+            i--;
+        }
+        // the ranges from j onwards are only shifted
+        final int j = lowerBound(oldEnd);
+
+        moveSplit(i);
+        int w = i;
+        for (; i < j; i++) {
+            Node<T> node = mNodes.get(i);
+            node.start += mShift;
+            node.end += mShift;
+            node.shifted = false;
+            if (node.start >= start && node.end <= oldEnd) {
+                // deleted
+                mIndex.remove(node.item);
+                continue;
+            }
+
+            // partially replaced
+            if (node.start > start) {
+                node.start = start + count;
+            }
+            if (node.end >= oldEnd) {
+                node.end += delta;
+            } else {
+                node.end = start;
+            }
+            if (node.end < node.start) {
+                node.end = node.start;
+            }
+            if (w != i) {
+                mNodes.set(w, node);
+            }
+            w++;
+        }
+        if (w != j) {
+            mNodes.subList(w, j).clear();
+        }
+
+        mSplit = w;
+        if (mSplit == mNodes.size()) {
+            mShift = 0;
+        } else {
+            mShift += delta;
+        }
+    }
+
+    private int startOf(Node<T> node) {
+        return node.shifted ? node.start + mShift : node.start;
+    }
+
+    private int endOf(Node<T> node) {
+        return node.shifted ? node.end + mShift : node.end;
+    }
+
+    // apply the shift to the nodes before index, and defer it for the others
+    private void moveSplit(int index) {
+        while (mSplit < index) {
+            Node<T> node = mNodes.get(mSplit++);
+            node.start += mShift;
+            node.end += mShift;
+            node.shifted = false;
+        }
+        while (mSplit > index) {
+            Node<T> node = mNodes.get(--mSplit);
+            node.start -= mShift;
+            node.end -= mShift;
+            node.shifted = true;
+        }
+    }
+
+    // first node whose start >= offset
+    private int lowerBound(int offset) {
+        int lo = 0;
+        int hi = mNodes.size();
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (startOf(mNodes.get(mid)) < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // first node whose start > offset
+    private int upperBound(int offset) {
+        int lo = 0;
+        int hi = mNodes.size();
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (startOf(mNodes.get(mid)) <= offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
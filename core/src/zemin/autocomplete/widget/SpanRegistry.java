@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An insertion-ordered registry of spans, indexed by key.
+ *
+ * Entries are linked intrusively, so adding, removing, looking up an entry by
+ * key, and querying the first/last entry are all O(1). Several entries may
+ * share the same key; {@link #get(Object)} returns the oldest one.
+ *
+ * This class has no Android dependencies.
+ */
+public class SpanRegistry<E extends SpanRegistry.Entry> implements Iterable<E> {
+
+    /**
+     * Base class of a registry entry. An entry can be registered in at most one
+     * registry at a time.
+     */
+    public static abstract class Entry {
+        Object key;
+        Entry prev;
+        Entry next;
+        Entry prevDup;
+        Entry nextDup;
+        boolean registered;
+
+        public Object getKey() {
+            return key;
+        }
+
+        public boolean isRegistered() {
+            return registered;
+        }
+    }
+
+    private final HashMap<Object, Entry> mIndex = new HashMap<Object, Entry>();
+    private Entry mHead;
+    private Entry mTail;
+    private int mSize;
+
+    /**
+     * Append an entry.
+     */
+    public void add(E entry, Object key) {
+        insertBefore(entry, key, null);
+    }
+
+    /**
+     * Insert an entry before the given one. If before is null, the entry will be
+     * appended.
+     */
+    public void insertBefore(E entry, Object key, E before) {
+        if (entry.registered) {
+            throw new IllegalStateException("entry already registered.");
+        }
+        if (before != null && !before.registered) {
+            throw new IllegalArgumentException("anchor is not registered.");
+        }
+
+        entry.key = key;
+        entry.registered = true;
+
+        // ordered list
+        if (before == null) {
+            entry.prev = mTail;
+            entry.next = null;
+            if (mTail != null) {
+                mTail.next = entry;
+            } else {
+                mHead = entry;
+            }
+            mTail = entry;
+        } else {
+            entry.prev = before.prev;
+            entry.next = before;
+            if (before.prev != null) {
+                before.prev.next = entry;
+            } else {
+                mHead = entry;
+            }
+            before.prev = entry;
+        }
+
+        // key index. duplicates are chained behind the oldest entry.
+        Entry first = mIndex.get(key);
+        if (first == null) {
+            entry.prevDup = entry.nextDup = null;
+            mIndex.put(key, entry);
+        } else {
+            Entry last = first;
+            while (last.nextDup != null) {
+                last = last.nextDup;
+            }
+            last.nextDup = entry;
+            entry.prevDup = last;
+            entry.nextDup = null;
+        }
+
+        mSize++;
+    }
+
+    /**
+     * Remove an entry.
+     *
+     * @return false if the entry is not registered.
+     */
+    public boolean remove(E entry) {
+        if (!entry.registered) {
+            return false;
+        }
+
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            mHead = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            mTail = entry.prev;
+        }
+
+        if (entry.prevDup != null) {
+            entry.prevDup.nextDup = entry.nextDup;
+        } else if (entry.nextDup != null) {
+            mIndex.put(entry.key, entry.nextDup);
+        } else {
+            mIndex.remove(entry.key);
+        }
+        if (entry.nextDup != null) {
+            entry.nextDup.prevDup = entry.prevDup;
+        }
+
+        entry.prev = entry.next = entry.prevDup = entry.nextDup = null;
+        entry.registered = false;
+        mSize--;
+        return true;
+    }
+
+    /**
+     * Get the oldest entry associated with the key.
+     */
+    @SuppressWarnings("unchecked")
+    public E get(Object key) {
+        return (E) mIndex.get(key);
+    }
+
+    public boolean contains(Object key) {
+        return mIndex.containsKey(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    public E first() {
+        return (E) mHead;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E last() {
+        return (E) mTail;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E next(E entry) {
+        return (E) entry.next;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E previous(E entry) {
+        return (E) entry.prev;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        Entry e = mHead;
+        while (e != null) {
+            Entry next = e.next;
+            e.prev = e.next = e.prevDup = e.nextDup = null;
+            e.registered = false;
+            e = next;
+        }
+        mIndex.clear();
+        mHead = mTail = null;
+        mSize = 0;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private Entry mNext = mHead;
+
+            @Override
+            public boolean hasNext() {
+                return mNext != null;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (mNext == null) {
+                    throw new NoSuchElementException();
+                }
+                Entry e = mNext;
+                mNext = e.next;
+                return (E) e;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -16,25 +16,48 @@
 
 package zemin.autocomplete.widget;
 
+import android.content.ClipData;
+import android.content.ClipboardManager;
 import android.content.Context;
+import android.graphics.Rect;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.v4.util.LruCache;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.text.Editable;
+import android.text.Layout;
 import android.text.Spannable;
 import android.text.SpanWatcher;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.text.method.LinkMovementMethod;
 import android.text.method.QwertyKeyListener;
 import android.text.style.ClickableSpan;
-import android.text.style.ImageSpan;
+import android.view.KeyEvent;
 import android.view.View;
+import android.widget.Filter;
+import android.widget.ListAdapter;
 import android.widget.MultiAutoCompleteTextView;
 
+import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * This class converts the auto-completion text into a image span constructed by
@@ -47,15 +70,112 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
     private static final String TAG = "zemin.SpannedAutoCompleteView";
     public static boolean DBG = true;
 
+    private static final int DEFAULT_BITMAP_POOL_SIZE = 4 * 1024 * 1024;
+    private static final int REHYDRATE_BATCH_SIZE = 16;
+    private static final int SPAN_POOL_SIZE = 32;
+
+    /**
+     * Duplicate policies.
+     *
+     * @see #setDuplicatePolicy(int)
+     */
+    public static final int DUPLICATE_ALLOW         = 0;
+    public static final int DUPLICATE_REJECT        = 1;
+    public static final int DUPLICATE_MOVE_TO_END   = 2;
+
     private final List<SpanLayer> mSpanLayers = new ArrayList<SpanLayer>();
-    private final List<SpanInfo> mSpans = new ArrayList<SpanInfo>();
+    private final SpanRegistry<SpanInfo> mSpans = new SpanRegistry<SpanInfo>();
+    private final Set<Object> mSelectedKeys =
+        Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+    private final ChipLayoutCalculator mLayoutCalculator = new ChipLayoutCalculator();
+    private final SuggestionFilter.Exclusion mSelectedExclusion =
+        new SuggestionFilter.Exclusion() {
+            @Override
+            public boolean isExcluded(Object item) {
+                return isSelected(item);
+            }
+        };
+
+    private final Runnable mFilterRunnable = new Runnable() {
+            @Override
+            public void run() {
+                // filter whatever the text is by now
+                SpannedAutoCompleteView.super.performFiltering(getText(), mFilterKeyCode);
+            }
+        };
+
+    private final Runnable mRehydrateRunnable = new Runnable() {
+            @Override
+            public void run() {
+                rehydrateSpans();
+            }
+        };
+
+    private final List<SpanInfo> mRehydrateQueue = new ArrayList<SpanInfo>();
+    private final SpanChangeSet mSpanChanges = new SpanChangeSet();
+    private final Runnable mSpansChangedRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mSpansChangedPosted = false;
+                if (!mInBatchEdit) {
+                    dispatchSpansChanged();
+                }
+            }
+        };
 
+    private Drawable[] mDrawables;
+    private Drawable[] mBoundDrawables;
+    private ChipStyle mChipStyle;
+    private ChipStyle.ChipBinder mChipBinder;
     private Drawable mSpanBackground;
+    private LruCache<Object, Drawable> mSpanCache;
+    private BitmapPool mBitmapPool;
+    private ItemKeyProvider mItemKeyProvider;
+    private ItemResolver mItemResolver;
+    private MetricsListener mMetrics;
     private Callback mCallback;
-    private DefaultTokenizer mTokenizer;
+    private SpanTokenizer mTokenizer;
     private SpanWatcherImpl mSpanWatcher;
+    private final List<Object> mPendingTokenSpans = new ArrayList<Object>();
+    private final SpanOffsetIndex<SpanInfo> mSpanOffsets = new SpanOffsetIndex<SpanInfo>();
+    private final List<SpanInfo> mBrokenSpans = new ArrayList<SpanInfo>();
+    private final List<SpanInfo> mDroppedSpans = new ArrayList<SpanInfo>();
+    private final List<Object> mStaleSpans = new ArrayList<Object>();
+    private final ObjectPool<SpanInfo> mSpanInfoPool = new ObjectPool<SpanInfo>(SPAN_POOL_SIZE) {
+        @Override
+        protected SpanInfo create() {
+            return new SpanInfo();
+        }
+    };
+    private final ObjectPool<ChipSpan> mChipSpanPool = new ObjectPool<ChipSpan>(SPAN_POOL_SIZE) {
+        @Override
+        protected ChipSpan create() {
+            return new ChipSpan();
+        }
+    };
+    private boolean mTextChanging;
     private SpanInfo mLastSpan;
     private boolean mAutoRemove;
+    private boolean mSuspendSpanWatcher;
+    private int mCollapsedSpanLimit;
+    private SpannableStringBuilder mCollapsedText;
+    private ExpandSpan mExpandSpan;
+    private boolean mRasterizeSpans;
+    private Executor mSpanExecutor;
+    private int mFilterDelay;
+    private int mFilterKeyCode;
+    private int mDuplicatePolicy = DUPLICATE_ALLOW;
+    private boolean mExcludeSelected;
+    private boolean mRejectCompletion;
+    private int mSelectionVersion;
+    private int mSelectedItemsVersion = -1;
+    private List<Object> mSelectedItems;
+    private boolean mPasteAsSpans;
+    private TokenResolver mTokenResolver;
+    private OnUnresolvedTokensListener mOnUnresolvedTokensListener;
+    private OnSpansChangedListener mOnSpansChangedListener;
+    private boolean mSpansChangedPosted;
+    private boolean mInBatchEdit;
     private CharSequence mSeparator;
 
     public interface Callback {
@@ -82,6 +202,80 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
         void onSpanClick(SpannedAutoCompleteView view, Object dropdownItem);
     }
 
+    public interface ItemKeyProvider {
+
+        /**
+         * Return a stable key which identifies the dropdownItem, e.g. an email
+         * address or a database id.
+         */
+        Object getItemKey(Object dropdownItem);
+    }
+
+    public interface ItemResolver {
+
+        /**
+         * Return the dropdownItem identified by the key, or null if it no longer
+         * exists. Used to restore the spans after a configuration change.
+         */
+        Object resolveItem(Object itemKey);
+    }
+
+    public interface TokenResolver {
+
+        /**
+         * Return the dropdownItems matching the pasted tokens, in the same
+         * order, with null for the tokens which cannot be resolved.
+         */
+        List<Object> resolve(List<String> tokens);
+    }
+
+    public interface OnUnresolvedTokensListener {
+
+        /**
+         * Called after a paste with the tokens which did not become spans. They
+         * are left as plain text.
+         */
+        void onUnresolvedTokens(SpannedAutoCompleteView view, List<String> tokens);
+    }
+
+    public interface OnSpansChangedListener {
+
+        /**
+         * Called once per edit transaction, or else once per frame, with the
+         * dropdownItems whose spans were added, removed, or removed and added
+         * again. Called on the UI thread.
+         */
+        void onSpansChanged(SpannedAutoCompleteView view, List<Object> added,
+                            List<Object> removed, List<Object> moved);
+    }
+
+    /**
+     * A tokenizer which is told where the spans are, and how the text changes.
+     * Spans are token boundaries; the view calls
+     * {@link #onTextChanged(int, int, int)} before reporting the spans added by
+     * the same change.
+     */
+    public interface SpanTokenizer extends Tokenizer {
+
+        void setSeparator(CharSequence separator);
+
+        /**
+         * Called when a span is added to [start, end), or moved there.
+         */
+        void onSpanAdded(Object span, int start, int end);
+
+        /**
+         * Called when a span is removed.
+         */
+        void onSpanRemoved(Object span);
+
+        /**
+         * Called when before characters at start have been replaced by count
+         * characters.
+         */
+        void onTextChanged(int start, int before, int count);
+    }
+
     public static class SimpleCallback implements Callback {
         public void onSpanCreate(SpannedAutoCompleteView view, Object dropdownItem) {}
         public void onSpanClick(SpannedAutoCompleteView view, Object dropdownItem) {}
@@ -107,11 +301,11 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
          * ************************************
          */
 
-        public static final int CENTER         = 0;
-        public static final int LEFT           = 1;
-        public static final int TOP            = 2;
-        public static final int RIGHT          = 3;
-        public static final int BOTTOM         = 4;
+        public static final int CENTER         = ChipLayoutCalculator.CENTER;
+        public static final int LEFT           = ChipLayoutCalculator.LEFT;
+        public static final int TOP            = ChipLayoutCalculator.TOP;
+        public static final int RIGHT          = ChipLayoutCalculator.RIGHT;
+        public static final int BOTTOM         = ChipLayoutCalculator.BOTTOM;
 
         private Context mContext;
 
@@ -154,13 +348,25 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
         }
     }
 
-    private class SpanInfo {
+    private class SpanInfo extends SpanRegistry.Entry {
         Object dropdownItem;
-        ImageSpan image;
-        ClickableSpan clickable;
+        Object itemKey;
+        ChipSpan image;
+        final ClickableSpan clickable;
+        PendingSpanImage pending;
         int sepLength;
 
-        SpanInfo(Object dropdownItem) { this.dropdownItem = dropdownItem; }
+        SpanInfo() {
+            this.clickable = new OnSpanClickListener(this);
+        }
+
+        void reset() {
+            dropdownItem = null;
+            itemKey = null;
+            image = null;
+            pending = null;
+            sepLength = 0;
+        }
     }
 
     public SpannedAutoCompleteView(Context context) {
@@ -173,13 +379,209 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
         setMovementMethod(LinkMovementMethod.getInstance());
         setTokenizer(new DefaultTokenizer());
         setSeparator(' ');
+
+        // the span watcher is attached once to every Editable the view creates,
+        // and being INCLUSIVE_INCLUSIVE, it keeps covering the text as it grows.
         mSpanWatcher = new SpanWatcherImpl();
+        setEditableFactory(new SpanWatcherFactory());
+        attachSpanWatcher(getText());
+        addTextChangedListener(new TextWatcherImpl());
     }
 
     public void setCallback(Callback cb) {
         mCallback = cb;
     }
 
+    /**
+     * Set a listener of the span changes, coalesced into a single diff per edit
+     * transaction or per frame. {@link Callback#onSpanAdded} and
+     * {@link Callback#onSpanRemoved} are still called for each span.
+     */
+    public void setOnSpansChangedListener(OnSpansChangedListener listener) {
+        mOnSpansChangedListener = listener;
+        if (listener == null) {
+            mSpanChanges.clear();
+        }
+    }
+
+    /**
+     * Set the provider of the keys used to identify dropdownItems. By default,
+     * the dropdownItem itself is the key.
+     */
+    public void setItemKeyProvider(ItemKeyProvider provider) {
+        mItemKeyProvider = provider;
+        if (mSpanCache != null) {
+            mSpanCache.evictAll();
+        }
+    }
+
+    /**
+     * Set the resolver of the item keys saved with the view state. Without an
+     * {@link ItemKeyProvider}, the keys are the dropdownItems themselves and no
+     * resolver is needed.
+     */
+    public void setItemResolver(ItemResolver resolver) {
+        mItemResolver = resolver;
+    }
+
+    /**
+     * Report timings and counters of the span operations to the listener, e.g. a
+     * {@link MetricsAggregator}. Nothing is measured while no listener is set.
+     */
+    public void setMetricsListener(MetricsListener listener) {
+        mMetrics = listener;
+    }
+
+    /**
+     * Cache the composed images of up to maxSize spans, keyed by item key.
+     * When a span is created for a cached dropdownItem, the cached image is
+     * reused and {@link Callback#onSpanCreate} is not called.
+     *
+     * The cache is cleared whenever the span background or the span layer stack
+     * changes. A maxSize of 0 disables the cache (default).
+     */
+    public void setSpanCacheSize(int maxSize) {
+        if (maxSize <= 0) {
+            mSpanCache = null;
+        } else if (mSpanCache == null) {
+            mSpanCache = new SpanCache(maxSize);
+        } else {
+            mSpanCache.resize(maxSize);
+        }
+    }
+
+    /**
+     * Return the span cache, which also provides the hit, miss and eviction
+     * counts, or null if the cache is disabled.
+     */
+    public LruCache<Object, Drawable> getSpanCache() {
+        return mSpanCache;
+    }
+
+    /**
+     * Render each span image once into a bitmap, and draw the bitmap instead of
+     * the span layer stack. The span is re-rendered only when one of its layers
+     * invalidates itself. Disabled by default.
+     */
+    public void setRasterizeSpans(boolean rasterize) {
+        if (mRasterizeSpans != rasterize) {
+            mRasterizeSpans = rasterize;
+            if (mSpanCache != null) {
+                mSpanCache.evictAll();
+            }
+        }
+    }
+
+    /**
+     * Set the memory budget, in bytes, of the bitmaps used by rasterized spans,
+     * those of the spans in the text or collapsed as well as the idle ones kept
+     * for reuse. Spans beyond the budget are drawn from their layers.
+     *
+     * @see #setRasterizeSpans(boolean)
+     */
+    public void setBitmapPoolSize(int maxBytes) {
+        if (mBitmapPool == null) {
+            mBitmapPool = new BitmapPool(maxBytes);
+        } else {
+            mBitmapPool.resize(maxBytes);
+        }
+    }
+
+    /**
+     * Compose span images on the given executor. Until its image is ready, a
+     * span is shown as plain text (still clickable), and the image is swapped
+     * in on the UI thread once composed.
+     *
+     * {@link Callback#onSpanCreate} is still called on the UI thread, so the
+     * span layers can be set up as usual. A null executor (default) composes
+     * span images synchronously.
+     */
+    public void setSpanExecutor(Executor executor) {
+        mSpanExecutor = executor;
+    }
+
+    /**
+     * Wait until the user has stopped typing for delayMillis before filtering.
+     * Either way, if the adapter's filter is a {@link SuggestionFilter}, the
+     * filtering in progress is cancelled on every keystroke. A delay of 0
+     * filters immediately (default).
+     */
+    public void setFilterDelay(int delayMillis) {
+        mFilterDelay = delayMillis;
+        if (delayMillis <= 0) {
+            removeCallbacks(mFilterRunnable);
+        }
+    }
+
+    /**
+     * Set what happens when a dropdownItem which already has a span is selected
+     * again: {@link #DUPLICATE_ALLOW} creates another span (default),
+     * {@link #DUPLICATE_REJECT} ignores the selection, and
+     * {@link #DUPLICATE_MOVE_TO_END} removes the existing span and creates a new
+     * one at the end.
+     */
+    public void setDuplicatePolicy(int policy) {
+        mDuplicatePolicy = policy;
+    }
+
+    /**
+     * Hide the dropdownItems which already have a span from the suggestions.
+     * This requires the adapter's filter to be a {@link SuggestionFilter}.
+     *
+     * Note that {@link ItemKeyProvider#getItemKey} will be called on the filter
+     * thread.
+     */
+    public void setExcludeSelected(boolean exclude) {
+        mExcludeSelected = exclude;
+        Filter filter = getFilter();
+        if (filter instanceof SuggestionFilter) {
+            ((SuggestionFilter<?>) filter).invalidate();
+        }
+    }
+
+    /**
+     * Return true if a span is associated with the dropdownItem. This is O(1).
+     */
+    public boolean isSelected(Object dropdownItem) {
+        final Object key = getItemKey(dropdownItem);
+        return key != null && mSelectedKeys.contains(key);
+    }
+
+    /**
+     * Return the dropdownItems associated with a span, in text order, collapsed
+     * spans included. The list is an immutable snapshot: it is built once per
+     * change, and returned as-is until the spans change again.
+     *
+     * @see #getSelectionVersion()
+     */
+    public List<Object> getSelectedItems() {
+        if (mSelectedItems == null || mSelectedItemsVersion != mSelectionVersion) {
+            final List<Object> items = new ArrayList<Object>(mSpans.size());
+            for (SpanInfo span : mSpans) {
+                items.add(span.dropdownItem);
+            }
+            mSelectedItems = Collections.unmodifiableList(items);
+            mSelectedItemsVersion = mSelectionVersion;
+        }
+        return mSelectedItems;
+    }
+
+    /**
+     * Return a counter which changes whenever a span is added or removed, so
+     * callers can skip work when nothing changed.
+     */
+    public int getSelectionVersion() {
+        return mSelectionVersion;
+    }
+
+    /**
+     * Return a read-only, thread-safe view of the keys of the dropdownItems
+     * associated with a span.
+     */
+    public Set<Object> getSelectedKeys() {
+        return Collections.unmodifiableSet(mSelectedKeys);
+    }
+
     /**
      * Automatically remove span when it gets clicked.
      */
@@ -187,6 +589,22 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
         mAutoRemove = auto;
     }
 
+    /**
+     * Show at most limit spans while the view is not focused. The other spans
+     * are collapsed into a single "+N" span, and expanded again when the view
+     * gains focus or the "+N" span gets clicked. All spans stay selected while
+     * collapsed. A limit of 0 disables collapsing (default).
+     */
+    public void setCollapsedSpanLimit(int limit) {
+        mCollapsedSpanLimit = limit;
+        if (mCollapsedText != null) {
+            expandSpans();
+        }
+        if (!isFocused()) {
+            collapseSpans();
+        }
+    }
+
     /**
      * Set span separator.
      */
@@ -196,6 +614,9 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
 
     public void setSeparator(CharSequence separator) {
         mSeparator = separator;
+        if (mTokenizer != null) {
+            mTokenizer.setSeparator(separator);
+        }
     }
 
     /**
@@ -208,6 +629,24 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
 
     public void setSpanBackground(Drawable drawable) {
         mSpanBackground = drawable;
+        if (mSpanCache != null) {
+            mSpanCache.evictAll();
+        }
+    }
+
+    /**
+     * Compose the spans from an immutable style instead of the span layers. The
+     * binder supplies the drawables of the variable layers for each
+     * dropdownItem, so nothing shared is mutated while a span is created. Pass
+     * null to go back to the span layers.
+     */
+    public void setChipStyle(ChipStyle style, ChipStyle.ChipBinder binder) {
+        mChipStyle = style;
+        mChipBinder = binder;
+        mBoundDrawables = null;
+        if (mSpanCache != null) {
+            mSpanCache.evictAll();
+        }
     }
 
     /**
@@ -216,6 +655,9 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
     public SpanLayer createSpanLayer() {
         SpanLayer layer = new SpanLayer(getContext());
         mSpanLayers.add(layer);
+        if (mSpanCache != null) {
+            mSpanCache.evictAll();
+        }
         return layer;
     }
 
@@ -225,210 +667,1518 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
     public void destroySpanLayer(SpanLayer layer) {
         if (mSpanLayers.contains(layer)) {
             mSpanLayers.remove(layer);
+            if (mSpanCache != null) {
+                mSpanCache.evictAll();
+            }
         }
     }
 
     /**
      * Remove the specific span associated with the dropdownItem.
+     *
+     * Spans are looked up by item key, see {@link #setItemKeyProvider}. If
+     * several spans are associated with the same key, the oldest one is removed.
      */
     public void removeSpan(Object dropdownItem) {
-        SpanInfo span = null;
-        for (SpanInfo s : mSpans) {
-            if (s.dropdownItem == dropdownItem) {
-                span = s; break;
-            }
-        }
+        SpanInfo span = mSpans.get(getItemKey(dropdownItem));
         if (span != null) {
             removeSpan(span);
         }
     }
 
-    @Override
-    public void setTokenizer(Tokenizer tokenizer) {
-        if (!(tokenizer instanceof DefaultTokenizer)) {
-            throw new IllegalArgumentException("unsupported tokenizer.");
+    /**
+     * Return the dropdownItem of the span covering the text offset, or null.
+     * Collapsed spans are not in the text.
+     */
+    public Object getSpanItemAt(int offset) {
+        final int i = mSpanOffsets.floor(offset + 1);
+        if (i >= 0 && mSpanOffsets.getEnd(i) > offset) {
+            return mSpanOffsets.get(i).dropdownItem;
         }
-        mTokenizer = (DefaultTokenizer) tokenizer;
-        super.setTokenizer(tokenizer);
+        return null;
     }
 
-    @Override
-    protected void replaceText(CharSequence text) {
-        clearComposingText();
+    /**
+     * Create spans for a collection of dropdownItems at once.
+     *
+     * All spans are built off-screen and committed to the text with a single
+     * edit. {@link Callback#onSpanCreate} is called for each dropdownItem as the
+     * span is being built, and {@link Callback#onSpanAdded} is called for each
+     * dropdownItem after the edit has been committed.
+     *
+     * The spans go after the last span, collapsed ones included. The spans are
+     * collapsed again afterwards if the view is not focused.
+     */
+    public void addSpans(Collection<?> dropdownItems) {
+        if (dropdownItems.isEmpty()) {
+            return;
+        }
 
-        final int end = getSelectionEnd();
-        final int start = mTokenizer.findTokenStart(getText(), end);
+        final boolean collapsed = mCollapsedText != null;
+        if (collapsed) {
+            expandSpans();
+        }
 
-        Editable editable = getText();
-        replaceTextWithSpannable(mTokenizer.terminateToken(text), start, end);
-        editable.append(mSeparator);
-    }
+        final int sepLength = mSeparator != null ? mSeparator.length() : 0;
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        final List<SpanInfo> spans = new ArrayList<SpanInfo>(dropdownItems.size());
+
+        final Set<Object> keys = mDuplicatePolicy != DUPLICATE_ALLOW ?
+            new HashSet<Object>() : null;
+
+        for (Object dropdownItem : dropdownItems) {
+            SpanInfo span = obtainSpanInfo(dropdownItem);
+            if (keys != null) {
+                // duplicates within the collection are dropped
+                if (!keys.add(span.itemKey) ||
+                    (mDuplicatePolicy == DUPLICATE_REJECT && mSpans.contains(span.itemKey))) {
+                    recycleSpanInfo(span);
+                    continue;
+                }
+            }
 
-    @Override
-    protected CharSequence convertSelectionToString(Object selectedItem) {
-        if (isPerformingCompletion()) {
-            addSpanInfo(new SpanInfo(selectedItem));
-            if (mCallback != null) {
-                mCallback.onSpanCreate(this, selectedItem);
+            if (appendSpan(builder, span, sepLength)) {
+                spans.add(span);
             }
         }
-        return super.convertSelectionToString(selectedItem);
-    }
 
-    private void replaceTextWithSpannable(CharSequence text, int start, int end) {
+        final Editable editable = getText();
+        final MetricsListener metrics = mMetrics;
+        final long t = metrics != null ? System.nanoTime() : 0;
 
-        final ArrayList<SpanLayer> spanLayers = new ArrayList<SpanLayer>(mSpanLayers);
-        final Iterator<SpanLayer> iter = spanLayers.iterator();
-        while (iter.hasNext()) {
-            SpanLayer layer = iter.next();
-            if (layer.drawable == null) {
-                iter.remove();
+        beginBatchEdit();
+        try {
+            if (mDuplicatePolicy == DUPLICATE_MOVE_TO_END) {
+                dropDuplicates(keys);
+            }
+
+            final int where = Math.min(getSpansEnd(), editable.length());
+            for (int i = 0, count = spans.size(); i < count; i++) {
+                registerSpan(spans.get(i));
+            }
+
+            mSuspendSpanWatcher = true;
+            try {
+                editable.replace(where, where, builder);
+            } finally {
+                mSuspendSpanWatcher = false;
             }
+        } finally {
+            endBatchEdit();
         }
 
-        int count = spanLayers.size();
-        if (count == 0) {
-            // no spans. fallback to the default.
-            Editable editable = getText();
-            editable.replace(start, end, text);
-            mSpans.remove(mLastSpan);
-            return;
+        if (metrics != null) {
+            metrics.onTiming(MetricsListener.TIMING_TEXT_REPLACE, System.nanoTime() - t);
         }
 
-        final boolean hasSpanBackground = mSpanBackground != null;
-        if (hasSpanBackground) {
-            count++;
+        if (mCallback != null) {
+            for (int i = 0, count = spans.size(); i < count; i++) {
+                mCallback.onSpanAdded(this, spans.get(i).dropdownItem);
+            }
+        }
+
+        if (collapsed || !isFocused()) {
+            collapseSpans();
         }
+    }
 
-        final Drawable[] drawables = new Drawable[count];
-        LayerDrawable layerDrawable;
+    /**
+     * Return the dropdownItems which get a span under the duplicate policy:
+     * duplicates within the list are dropped, and so are the dropdownItems
+     * already selected with DUPLICATE_REJECT, or their current spans with
+     * DUPLICATE_MOVE_TO_END. Meant to be called within a batch edit.
+     */
+    private List<Object> applyDuplicatePolicy(List<Object> dropdownItems) {
+        if (mDuplicatePolicy == DUPLICATE_ALLOW) {
+            return dropdownItems;
+        }
 
-        if (hasSpanBackground) {
-            // always the bottom layer
-            drawables[0] = cloneDrawable(mSpanBackground);
+        final List<Object> items = new ArrayList<Object>(dropdownItems.size());
+        final Set<Object> keys = new HashSet<Object>();
+        for (int i = 0, count = dropdownItems.size(); i < count; i++) {
+            final Object dropdownItem = dropdownItems.get(i);
+            final Object key = getItemKey(dropdownItem);
+            if (keys.add(key) &&
+                (mDuplicatePolicy != DUPLICATE_REJECT || !mSpans.contains(key))) {
+                items.add(dropdownItem);
+            }
+        }
+        if (mDuplicatePolicy == DUPLICATE_MOVE_TO_END) {
+            dropDuplicates(keys);
         }
+        return items;
+    }
 
-        int idx = hasSpanBackground ? 1 : 0;
-        for (SpanLayer layer : spanLayers) {
-            layer.idx = idx++;
-            drawables[layer.idx] = cloneDrawable(layer.drawable);
+    /**
+     * Remove the spans of the keys, without moving the selection. Meant to be
+     * called within a batch edit.
+     */
+    private void dropDuplicates(Set<Object> keys) {
+        final List<SpanInfo> duplicates = new ArrayList<SpanInfo>();
+        for (SpanInfo span : mSpans) {
+            if (keys.contains(span.itemKey)) {
+                duplicates.add(span);
+            }
         }
-        layerDrawable = new LayerDrawable(drawables);
+        for (int i = 0, count = duplicates.size(); i < count; i++) {
+            dropSpan(duplicates.get(i));
+        }
+    }
 
-        int w, h, lw, lh, rw, rh, tw, th, bw, bh, cw, ch;
-        lw = lh = rw = rh = tw = th = bw = bh = cw = ch = 0;
+    /**
+     * Make the spans match dropdownItems, in order, with as few edits as
+     * possible. Spans of the dropdownItems already there are kept as they are,
+     * with their images; only the spans of the other dropdownItems are removed
+     * or created. Spans are matched by item key, see {@link #setItemKeyProvider}.
+     * Passing {@link #getSelectedItems()} changes nothing.
+     *
+     * All edits are made in a single batch edit.
+     */
+    public void setSelectedItems(List<?> dropdownItems) {
+        // the target, without the duplicates the policy would drop
+        final List<Object> items = new ArrayList<Object>(dropdownItems.size());
+        final List<Object> keys = new ArrayList<Object>(dropdownItems.size());
+        final Set<Object> seen = mDuplicatePolicy != DUPLICATE_ALLOW ?
+            new HashSet<Object>() : null;
+        for (Object dropdownItem : dropdownItems) {
+            final Object key = getItemKey(dropdownItem);
+            if (seen == null || seen.add(key)) {
+                items.add(dropdownItem);
+                keys.add(key);
+            }
+        }
 
-        for (SpanLayer layer : spanLayers) {
-            w = layer.width + layer.leftMargin + layer.rightMargin;
-            h = layer.height + layer.topMargin + layer.bottomMargin;
+        // the current spans, in text order, collapsed ones included
+        final int size = mSpans.size();
+        final SpanInfo[] current = new SpanInfo[size];
+        final Object[] currentKeys = new Object[size];
+        int n = 0;
+        for (SpanInfo span : mSpans) {
+            current[n] = span;
+            currentKeys[n++] = span.itemKey;
+        }
 
-            switch (layer.gravity) {
-            case SpanLayer.LEFT:
-                lw = Math.max(lw, w);
-                lh = Math.max(lh, h);
-                break;
+        final int[] matches = SequenceDiff.diff(currentKeys, keys.toArray());
+        final SpanInfo[] survivors = new SpanInfo[items.size()];
+        int matched = 0;
+        for (int i = 0; i < size; i++) {
+            if (matches[i] >= 0) {
+                final Object item = items.get(matches[i]);
+                survivors[matches[i]] = current[i];
+                matched++;
+                if (current[i].dropdownItem != item) {
+                    // same key, newer dropdownItem
+                    current[i].dropdownItem = item;
+                    mSelectionVersion++;
+                }
+            }
+        }
+        if (matched == size && matched == items.size()) {
+            // no span to add or remove
+            return;
+        }
 
-            case SpanLayer.RIGHT:
-                rw = Math.max(rw, w);
-                rh = Math.max(rh, h);
-                break;
+        final boolean collapsed = mCollapsedText != null;
+        if (collapsed) {
+            expandSpans();
+        }
 
-            case SpanLayer.TOP:
-                tw = Math.max(tw, w);
-                th = Math.max(th, h);
-                break;
+        final Editable editable = getText();
+        final int sepLength = mSeparator != null ? mSeparator.length() : 0;
+        final List<SpanInfo> added = new ArrayList<SpanInfo>();
 
-            case SpanLayer.BOTTOM:
-                bw = Math.max(bw, w);
-                bh = Math.max(bh, h);
-                break;
+        beginBatchEdit();
+        try {
+            for (int i = 0; i < size; i++) {
+                if (matches[i] < 0) {
+                    deleteSpan(current[i], editable);
+                }
+            }
 
-            case SpanLayer.CENTER:
-                cw = Math.max(cw, w);
-                ch = Math.max(ch, h);
-                break;
+            // each run of new spans goes right before the next survivor
+            int j = 0;
+            while (j < survivors.length) {
+                if (survivors[j] != null) {
+                    j++;
+                    continue;
+                }
+                int next = j;
+                while (next < survivors.length && survivors[next] == null) {
+                    next++;
+                }
+                final SpanInfo before = next < survivors.length ? survivors[next] : null;
+                int where = before != null ? mSpanOffsets.getStart(before) : -1;
+                if (where < 0) {
+                    where = Math.min(getSpansEnd(), editable.length());
+                }
+                insertSpans(editable, items.subList(j, next), where, before, sepLength, added);
+                j = next;
             }
+        } finally {
+            endBatchEdit();
         }
 
-        w = lw + rw + cw;
-        w = Math.max(w, tw);
-        w = Math.max(w, bw);
-
-        h = th + bh + ch;
-        h = Math.max(h, lh);
-        h = Math.max(h, rh);
+        if (mCallback != null) {
+            for (int i = 0, count = added.size(); i < count; i++) {
+                mCallback.onSpanAdded(this, added.get(i).dropdownItem);
+            }
+        }
 
-        int l, t, r, b, o;
-        l = t = r = b = 0;
+        if (collapsed || !isFocused()) {
+            collapseSpans();
+        }
+    }
 
-        for (SpanLayer layer : spanLayers) {
-            switch (layer.gravity) {
-            case SpanLayer.LEFT:
-                l = layer.leftMargin;
-                r = w - l - layer.width;
-                t = b = (h - layer.height) / 2;
-                break;
+    /**
+     * Insert spans at where, registered before the given span, which must be
+     * the next one in the text, or null.
+     */
+    private void insertSpans(Editable editable, List<?> dropdownItems, int where,
+                             SpanInfo before, int sepLength, List<SpanInfo> added) {
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        final List<SpanInfo> spans = new ArrayList<SpanInfo>(dropdownItems.size());
+        for (int i = 0, count = dropdownItems.size(); i < count; i++) {
+            SpanInfo span = obtainSpanInfo(dropdownItems.get(i));
+            if (appendSpan(builder, span, sepLength)) {
+                spans.add(span);
+            }
+        }
 
-            case SpanLayer.RIGHT:
-                r = layer.rightMargin;
-                l = w - r - layer.width;
-                t = b = (h - layer.height) / 2;
-                break;
+        for (int i = 0, count = spans.size(); i < count; i++) {
+            registerSpan(spans.get(i), before);
+        }
 
-            case SpanLayer.TOP:
-                t = layer.topMargin;
-                b = h - t - layer.height;
-                l = r = (w - layer.width) / 2;
-                break;
+        mSuspendSpanWatcher = true;
+        try {
+            editable.replace(where, where, builder);
+        } finally {
+            mSuspendSpanWatcher = false;
+        }
+        added.addAll(spans);
+    }
 
-            case SpanLayer.BOTTOM:
-                b = layer.bottomMargin;
-                t = h - b - layer.height;
-                l = r = (w - layer.width) / 2;
-                break;
+    /**
+     * Build the span and append it, followed by the separator, to builder.
+     *
+     * @return false if there is no image to show, the span is then recycled.
+     */
+    private boolean appendSpan(SpannableStringBuilder builder, SpanInfo span, int sepLength) {
+        if (!loadSpanImage(span) && mCallback != null) {
+            mCallback.onSpanCreate(this, span.dropdownItem);
+        }
 
-            case SpanLayer.CENTER:
-                o = (w - lw - rw - cw) / 2;
-                l = lw + o;
-                r = rw + o;
-                o = (h - th - bh - ch) / 2;
-                t = th + o;
-                b = bh + o;
-                break;
+        final int start = builder.length();
+        builder.append(mTokenizer.terminateToken(convertItemToString(span.dropdownItem)));
+        final boolean prepared = prepareSpanImage(span);
+        if (prepared) {
+            final int end = builder.length();
+            if (span.image != null) {
+                builder.setSpan(span.image, start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
             }
-
-            layerDrawable.setLayerInset(layer.idx, l, t, r, b);
+            builder.setSpan(span.clickable, start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            span.sepLength = sepLength;
+        } else {
+            recycleSpanInfo(span);
+        }
+        if (mSeparator != null) {
+            builder.append(mSeparator);
         }
+        return prepared;
+    }
 
-        layerDrawable.setBounds(0, 0, w, h);
+    /**
+     * Convert pasted text into spans. The text is split on line breaks, commas
+     * and the separator, and the tokens are resolved in a batch, see
+     * {@link #setTokenResolver}. A blank separator, such as the default " ", does
+     * not split the text, so names with spaces stay whole. Disabled by default.
+     */
+    public void setPasteAsSpans(boolean enabled) {
+        mPasteAsSpans = enabled;
+    }
 
-        Editable editable = getText();
-        SpanInfo spanInfo = mLastSpan;
-        spanInfo.image = new ImageSpan(layerDrawable, ImageSpan.ALIGN_BOTTOM);;
-        spanInfo.clickable = new OnSpanClickListener(spanInfo);
-        mLastSpan = null;
+    /**
+     * Set the resolver of pasted tokens. By default, if the adapter is a
+     * {@link SuggestionAdapter} whose source is a
+     * {@link SuggestionSource.KeyLookup}, such as {@link PrefixIndex}, a token
+     * is resolved to the item whose key equals the token, ignoring case.
+     * Otherwise it is resolved to the dropdownItem of the adapter whose string
+     * (see {@link Filter#convertResultToString}) equals the token, ignoring
+     * case. Sources are never queried token by token.
+     */
+    public void setTokenResolver(TokenResolver resolver) {
+        mTokenResolver = resolver;
+    }
 
-        editable.replace(start, end, text);
-        updateSpanWatcher();
-        addSpan(spanInfo, start, start + text.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    public void setOnUnresolvedTokensListener(OnUnresolvedTokensListener listener) {
+        mOnUnresolvedTokensListener = listener;
     }
 
-    private class OnSpanClickListener extends ClickableSpan {
+    /**
+     * Convert text into spans in one edit, as if it were pasted. The spans
+     * replace the selection, followed by the tokens which cannot be resolved,
+     * as plain text.
+     *
+     * @return false if no token could be resolved. The text is left untouched.
+     */
+    public boolean pasteAsSpans(CharSequence text) {
+        final List<String> tokens = splitTokens(text, mSeparator);
+        if (tokens.isEmpty()) {
+            return false;
+        }
+
+        final List<Object> items = resolveTokens(tokens);
+        final List<Object> resolved = new ArrayList<Object>(tokens.size());
+        final List<String> unresolved = new ArrayList<String>();
+        for (int i = 0, count = tokens.size(); i < count; i++) {
+            Object item = items != null && i < items.size() ? items.get(i) : null;
+            if (item != null) {
+                resolved.add(item);
+            } else {
+                unresolved.add(tokens.get(i));
+            }
+        }
+
+        if (!resolved.isEmpty()) {
+            // the collapsed spans are put back first, so the selection and the
+            // new spans land where the text says they do
+            final boolean collapsed = mCollapsedText != null;
+            if (collapsed) {
+                expandSpans();
+            }
+
+            final Editable editable = getText();
+            final int sepLength = mSeparator != null ? mSeparator.length() : 0;
+            final List<SpanInfo> added = new ArrayList<SpanInfo>();
+
+            beginBatchEdit();
+            try {
+                final List<Object> spanItems = applyDuplicatePolicy(resolved);
+
+                // the spans go at the selection, followed by the tokens left
+                final int selStart = getSelectionStart();
+                final int selEnd = getSelectionEnd();
+                final int start = Math.max(0, Math.min(selStart, selEnd));
+                final int end = Math.max(0, Math.max(selStart, selEnd));
+                final String left = unresolved.isEmpty() ? "" :
+                    TextUtils.join(mSeparator != null ? mSeparator : " ", unresolved);
+                editable.replace(start, end, left);
+
+                final int length = editable.length();
+                insertSpans(editable, spanItems, start, getSpanAfter(start), sepLength, added);
+                setSelection(start + editable.length() - length + left.length());
+            } finally {
+                endBatchEdit();
+            }
+
+            if (mCallback != null) {
+                for (int i = 0, count = added.size(); i < count; i++) {
+                    mCallback.onSpanAdded(this, added.get(i).dropdownItem);
+                }
+            }
+
+            if (collapsed || !isFocused()) {
+                collapseSpans();
+            }
+        }
+
+        if (!unresolved.isEmpty() && mOnUnresolvedTokensListener != null) {
+            mOnUnresolvedTokensListener.onUnresolvedTokens(this, unresolved);
+        }
+        return !resolved.isEmpty();
+    }
+
+    @Override
+    public void onBeginBatchEdit() {
+        mInBatchEdit = true;
+        super.onBeginBatchEdit();
+    }
+
+    /**
+     * The span changes of the edit transaction are delivered here at once.
+     */
+    @Override
+    public void onEndBatchEdit() {
+        mInBatchEdit = false;
+        super.onEndBatchEdit();
+        dispatchSpansChanged();
+    }
+
+    @Override
+    public boolean onTextContextMenuItem(int id) {
+        if (id == android.R.id.copy || id == android.R.id.cut) {
+            final boolean handled = super.onTextContextMenuItem(id);
+            stripClipSpans();
+            return handled;
+        }
+        if (id == android.R.id.paste && mPasteAsSpans) {
+            ClipboardManager clipboard = (ClipboardManager)
+                getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+            ClipData clip = clipboard.getPrimaryClip();
+            if (clip != null) {
+                final StringBuilder text = new StringBuilder();
+                for (int i = 0, count = clip.getItemCount(); i < count; i++) {
+                    text.append(clip.getItemAt(i).coerceToText(getContext())).append('\n');
+                }
+                if (pasteAsSpans(text)) {
+                    return true;
+                }
+            }
+        }
+        return super.onTextContextMenuItem(id);
+    }
+
+    /**
+     * Backspace right after a span, or after its separator, deletes the whole
+     * span at once.
+     */
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_DEL) {
+            final int cursor = getSelectionStart();
+            final int i = mSpanOffsets.floor(cursor);
+            if (cursor == getSelectionEnd() && i >= 0) {
+                final SpanInfo span = mSpanOffsets.get(i);
+                final int end = mSpanOffsets.getEnd(i);
+                final Editable editable = getText();
+                if (cursor == end || (cursor == end + span.sepLength &&
+                                      hasSeparatorAt(editable, end, span.sepLength))) {
+                    final int start = deleteSpan(span, editable);
+                    setSelection(Math.min(start, editable.length()));
+                    return true;
+                }
+            }
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+
+    /**
+     * Split text on line breaks, commas and the separator in one pass. Only the
+     * non-blank part of the separator counts, e.g. ";" for "; ". Tokens are
+     * trimmed, and empty ones are dropped.
+     */
+    private static List<String> splitTokens(CharSequence text, CharSequence separator) {
+        final List<String> tokens = new ArrayList<String>();
+        final String sep = separator != null ? separator.toString().trim() : "";
+        final int sepLength = sep.length();
+        final int length = text.length();
+
+        int start = 0;
+        int i = 0;
+        while (i < length) {
+            final char c = text.charAt(i);
+            int skip = 0;
+            if (c == '\n' || c == '\r' || c == ',') {
+                skip = 1;
+            } else if (sepLength > 0 && i + sepLength <= length &&
+                       TextUtils.regionMatches(text, i, sep, 0, sepLength)) {
+                skip = sepLength;
+            }
+
+            if (skip == 0) {
+                i++;
+                continue;
+            }
+            addToken(tokens, text, start, i);
+            i += skip;
+            start = i;
+        }
+        addToken(tokens, text, start, length);
+        return tokens;
+    }
+
+    private static void addToken(List<String> tokens, CharSequence text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (start < end) {
+            tokens.add(text.subSequence(start, end).toString());
+        }
+    }
+
+    private List<Object> resolveTokens(List<String> tokens) {
+        if (mTokenResolver != null) {
+            return mTokenResolver.resolve(tokens);
+        }
+
+        final List<Object> items = new ArrayList<Object>(tokens.size());
+        final ListAdapter adapter = getAdapter();
+        final SuggestionSource<?> source = adapter instanceof SuggestionAdapter ?
+            ((SuggestionAdapter<?>) adapter).getSource() : null;
+
+        if (source instanceof SuggestionSource.KeyLookup) {
+            final SuggestionSource.KeyLookup<?> lookup = (SuggestionSource.KeyLookup<?>) source;
+            for (int i = 0, count = tokens.size(); i < count; i++) {
+                items.add(lookup.lookup(tokens.get(i)));
+            }
+            return items;
+        }
+
+        // index the adapter once for the whole batch
+        final HashMap<String, Object> index = new HashMap<String, Object>();
+        if (adapter != null) {
+            for (int i = adapter.getCount() - 1; i >= 0; i--) {
+                Object item = adapter.getItem(i);
+                index.put(normalizeToken(convertItemToString(item)), item);
+            }
+        }
+        for (int i = 0, count = tokens.size(); i < count; i++) {
+            items.add(index.get(normalizeToken(tokens.get(i))));
+        }
+        return items;
+    }
+
+    private static String normalizeToken(CharSequence token) {
+        return token.toString().trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Set the tokenizer, which must be a {@link SpanTokenizer}.
+     */
+    @Override
+    public void setTokenizer(Tokenizer tokenizer) {
+        if (!(tokenizer instanceof SpanTokenizer)) {
+            throw new IllegalArgumentException("unsupported tokenizer.");
+        }
+        mTokenizer = (SpanTokenizer) tokenizer;
+        mTokenizer.setSeparator(mSeparator);
+
+        // tell the new tokenizer about the spans already in the text
+        for (int i = 0, count = mSpanOffsets.size(); i < count; i++) {
+            mTokenizer.onSpanAdded(mSpanOffsets.get(i).clickable,
+                                   mSpanOffsets.getStart(i), mSpanOffsets.getEnd(i));
+        }
+        final Editable editable = getText();
+        if (editable != null) {
+            if (mExpandSpan != null && editable.getSpanStart(mExpandSpan) >= 0) {
+                mTokenizer.onSpanAdded(mExpandSpan, editable.getSpanStart(mExpandSpan),
+                                       editable.getSpanEnd(mExpandSpan));
+            }
+        }
+        super.setTokenizer(tokenizer);
+    }
+
+    @Override
+    protected void performFiltering(CharSequence text, int keyCode) {
+        Filter filter = getFilter();
+        if (filter instanceof SuggestionFilter) {
+            SuggestionFilter<?> f = (SuggestionFilter<?>) filter;
+            f.cancel();
+            f.setExclusion(mExcludeSelected ? mSelectedExclusion : null);
+        }
+
+        if (mFilterDelay <= 0) {
+            super.performFiltering(text, keyCode);
+            return;
+        }
+
+        mFilterKeyCode = keyCode;
+        removeCallbacks(mFilterRunnable);
+        postDelayed(mFilterRunnable, mFilterDelay);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        removeCallbacks(mFilterRunnable);
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * The spans are saved as item keys and text offsets. Keys which are neither
+     * Parcelable nor Serializable are not saved, their spans come back as plain
+     * text. Collapsed spans are saved as they are, the text is left untouched.
+     */
+    @Override
+    public Parcelable onSaveInstanceState() {
+        final SavedState ss = new SavedState(super.onSaveInstanceState());
+
+        SpanInfo[] collapsed = null;
+        int[] collapsedOffsets = null;
+        if (mCollapsedText != null && getText().getSpanStart(mExpandSpan) >= 0) {
+            collapsed = getCollapsedSpans();
+            collapsedOffsets = new int[collapsed.length * 2];
+            for (int i = 0; i < collapsed.length; i++) {
+                collapsedOffsets[i * 2] = mCollapsedText.getSpanStart(collapsed[i].clickable);
+                collapsedOffsets[i * 2 + 1] = mCollapsedText.getSpanEnd(collapsed[i].clickable);
+            }
+        }
+
+        final int size = mSpanOffsets.size();
+        final int total = size + (collapsed != null ? collapsed.length : 0);
+        final Object[] keys = new Object[total];
+        final int[] offsets = new int[total * 2];
+
+        // the visible spans, then the collapsed ones, in text order
+        int count = 0;
+        int visible = 0;
+        for (int i = 0; i < total; i++) {
+            final SpanInfo span = i < size ? mSpanOffsets.get(i) : collapsed[i - size];
+            final Object key = span.itemKey;
+            if (!(key instanceof Parcelable || key instanceof Serializable)) {
+                continue;
+            }
+            if (i < size) {
+                visible++;
+            }
+            keys[count] = key;
+            if (i < size) {
+                offsets[count * 2] = mSpanOffsets.getStart(i);
+                offsets[count * 2 + 1] = mSpanOffsets.getEnd(i);
+            } else {
+                offsets[count * 2] = collapsedOffsets[(i - size) * 2];
+                offsets[count * 2 + 1] = collapsedOffsets[(i - size) * 2 + 1];
+            }
+            count++;
+        }
+
+        ss.keys = count == keys.length ? keys : Arrays.copyOf(keys, count);
+        ss.offsets = count == keys.length ? offsets : Arrays.copyOf(offsets, count * 2);
+        if (collapsed != null) {
+            final Editable editable = getText();
+            ss.collapsedIndex = visible;
+            ss.collapsedText = mCollapsedText.toString();
+            ss.expandStart = editable.getSpanStart(mExpandSpan);
+            ss.expandEnd = Math.min(editable.getSpanEnd(mExpandSpan) + mExpandSpan.sepLength,
+                                    editable.length());
+        }
+        return ss;
+    }
+
+    /**
+     * The spans are restored right away, but their images are composed a few at
+     * a time, visible spans first. {@link Callback#onSpanAdded} is not called for
+     * restored spans.
+     */
+    @Override
+    public void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+
+        // the text is about to be replaced
+        final List<SpanInfo> spans = new ArrayList<SpanInfo>(mSpans.size());
+        for (SpanInfo span : mSpans) {
+            spans.add(span);
+        }
+        for (int i = 0, count = spans.size(); i < count; i++) {
+            removeSpanInfo(spans.get(i));
+        }
+        mRehydrateQueue.clear();
+        mCollapsedText = null;
+        mExpandSpan = null;
+
+        final SavedState ss = (SavedState) state;
+        super.onRestoreInstanceState(ss.getSuperState());
+
+        // the restored text holds the spans of the view which saved it, which
+        // may be another instance. the spans are rebuilt from the keys only.
+        stripSpans(getText());
+        if (ss.keys != null && ss.offsets != null) {
+            restoreSpans(ss);
+        }
+    }
+
+    /**
+     * Remove the spans of any {@link SpannedAutoCompleteView} from the text,
+     * without callbacks.
+     *
+     * @return false if there were none.
+     */
+    private boolean stripSpans(Spannable text) {
+        final int length = text.length();
+        boolean stripped = false;
+        mSuspendSpanWatcher = true;
+        try {
+            for (Object span : text.getSpans(0, length, OnSpanClickListener.class)) {
+                text.removeSpan(span);
+                stripped = true;
+            }
+            for (Object span : text.getSpans(0, length, ExpandSpan.class)) {
+                text.removeSpan(span);
+                stripped = true;
+            }
+            for (Object span : text.getSpans(0, length, ChipSpan.class)) {
+                text.removeSpan(span);
+                stripped = true;
+            }
+        } finally {
+            mSuspendSpanWatcher = false;
+        }
+        return stripped;
+    }
+
+    /**
+     * Copy the text on the clipboard without the spans of the view. The span
+     * objects are recycled once their chips are removed, and must not be
+     * reachable from copied text by then.
+     */
+    private void stripClipSpans() {
+        ClipboardManager clipboard = (ClipboardManager)
+            getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+        ClipData clip = clipboard.getPrimaryClip();
+        if (clip == null || clip.getItemCount() == 0) {
+            return;
+        }
+        final CharSequence text = clip.getItemAt(0).getText();
+        if (!(text instanceof Spanned)) {
+            return;
+        }
+        final SpannableStringBuilder copy = new SpannableStringBuilder(text);
+        if (stripSpans(copy)) {
+            clipboard.setPrimaryClip(ClipData.newPlainText(null, copy));
+        }
+    }
+
+    private void restoreSpans(SavedState ss) {
+        final Editable editable = getText();
+        final Object[] keys = ss.keys;
+        final int[] offsets = ss.offsets;
+        final int sepLength = mSeparator != null ? mSeparator.length() : 0;
+
+        int count = Math.min(keys.length, offsets.length / 2);
+        final int collapsedIndex = ss.collapsedIndex >= 0 ?
+            Math.min(ss.collapsedIndex, count) : count;
+        int collapsedStart = 0;
+
+        mSuspendSpanWatcher = true;
+        try {
+            if (collapsedIndex < count) {
+                // put the collapsed text back in place of the "+N" text
+                if (ss.collapsedText != null && ss.expandStart >= 0 &&
+                    ss.expandStart < ss.expandEnd && ss.expandEnd <= editable.length() &&
+                    editable.charAt(ss.expandStart) == '+') {
+                    editable.replace(ss.expandStart, ss.expandEnd, ss.collapsedText);
+                    collapsedStart = ss.expandStart;
+                } else {
+                    count = collapsedIndex;
+                }
+            }
+
+            final int length = editable.length();
+            for (int i = 0; i < count; i++) {
+                final int shift = i < collapsedIndex ? 0 : collapsedStart;
+                final int start = offsets[i * 2] + shift;
+                final int end = offsets[i * 2 + 1] + shift;
+                if (start < 0 || end > length || start >= end) {
+                    continue;
+                }
+
+                final Object item = mItemResolver != null ? mItemResolver.resolveItem(keys[i]) :
+                    mItemKeyProvider == null ? keys[i] : null;
+                if (item == null) {
+                    continue;
+                }
+
+                SpanInfo span = obtainSpanInfo(item);
+                span.sepLength = sepLength;
+                registerSpan(span);
+                editable.setSpan(span.clickable, start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                mRehydrateQueue.add(span);
+            }
+        } finally {
+            mSuspendSpanWatcher = false;
+        }
+
+        if (!mRehydrateQueue.isEmpty()) {
+            removeCallbacks(mRehydrateRunnable);
+            post(mRehydrateRunnable);
+        }
+        if (!isFocused()) {
+            collapseSpans();
+        }
+    }
+
+    /**
+     * Compose the images of a batch of restored spans, visible ones first, and
+     * schedule the next batch.
+     */
+    private void rehydrateSpans() {
+        final List<SpanInfo> queue = mRehydrateQueue;
+        final Editable editable = getText();
+
+        int visibleStart = 0;
+        int visibleEnd = editable.length();
+        final Layout layout = getLayout();
+        if (layout != null) {
+            final int top = getScrollY();
+            visibleStart = layout.getLineStart(layout.getLineForVertical(top));
+            visibleEnd = layout.getLineEnd(layout.getLineForVertical(top + getHeight()));
+        }
+
+        int done = 0;
+        for (int pass = 0; pass < 2 && done < REHYDRATE_BATCH_SIZE; pass++) {
+            for (int i = 0, count = queue.size(); i < count && done < REHYDRATE_BATCH_SIZE; i++) {
+                SpanInfo span = queue.get(i);
+                if (span == null) {
+                    continue;
+                }
+                if (pass == 0) {
+                    final int start = editable.getSpanStart(span.clickable);
+                    if (start < visibleStart || start > visibleEnd) {
+                        continue;
+                    }
+                }
+                queue.set(i, null);
+                rehydrateSpan(span);
+                done++;
+            }
+        }
+
+        int w = 0;
+        for (int i = 0, count = queue.size(); i < count; i++) {
+            SpanInfo span = queue.get(i);
+            if (span != null) {
+                queue.set(w++, span);
+            }
+        }
+        for (int i = queue.size() - 1; i >= w; i--) {
+            queue.remove(i);
+        }
+
+        if (!queue.isEmpty()) {
+            post(mRehydrateRunnable);
+        }
+    }
+
+    private void rehydrateSpan(SpanInfo span) {
+        if (!span.isRegistered() || span.image != null || span.pending != null) {
+            return;
+        }
+
+        if (!loadSpanImage(span) && mCallback != null) {
+            mCallback.onSpanCreate(this, span.dropdownItem);
+        }
+        if (prepareSpanImage(span) && span.image != null) {
+            final Spannable host = getSpanHost(span);
+            if (host != null) {
+                host.setSpan(span.image, host.getSpanStart(span.clickable),
+                             host.getSpanEnd(span.clickable), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+    }
+
+    @Override
+    protected void onFocusChanged(boolean focused, int direction, Rect previouslyFocusedRect) {
+        super.onFocusChanged(focused, direction, previouslyFocusedRect);
+        if (focused) {
+            expandSpans();
+        } else {
+            collapseSpans();
+        }
+    }
+
+    @Override
+    protected void replaceText(CharSequence text) {
+        clearComposingText();
+
+        final int end = getSelectionEnd();
+        final int start = mTokenizer.findTokenStart(getText(), end);
+
+        Editable editable = getText();
+        if (mRejectCompletion) {
+            // duplicate. drop what the user has typed.
+            mRejectCompletion = false;
+            editable.delete(start, end);
+            return;
+        }
+
+        final CharSequence token = mTokenizer.terminateToken(text);
+        replaceTextWithSpannable(token, start, end);
+        if (mSeparator != null) {
+            // the cursor may be anywhere, not only at the end
+            final int where = start + token.length();
+            editable.insert(where, mSeparator);
+            setSelection(where + mSeparator.length());
+        }
+    }
+
+    @Override
+    protected CharSequence convertSelectionToString(Object selectedItem) {
+        if (isPerformingCompletion()) {
+            final MetricsListener metrics = mMetrics;
+            final long t = metrics != null ? System.nanoTime() : 0;
+
+            SpanInfo span = obtainSpanInfo(selectedItem);
+            if (mDuplicatePolicy != DUPLICATE_ALLOW && mSpans.contains(span.itemKey)) {
+                if (mDuplicatePolicy == DUPLICATE_REJECT) {
+                    recycleSpanInfo(span);
+                    mRejectCompletion = true;
+                    return super.convertSelectionToString(selectedItem);
+                }
+                // the completion is replacing the text at the selection, which
+                // must stay where the user is typing
+                SpanInfo existing;
+                while ((existing = mSpans.get(span.itemKey)) != null) {
+                    dropSpan(existing);
+                }
+            }
+            addSpanInfo(span);
+            if (!loadSpanImage(span) && mCallback != null) {
+                mCallback.onSpanCreate(this, selectedItem);
+            }
+
+            if (metrics != null) {
+                metrics.onTiming(MetricsListener.TIMING_CONVERT_SELECTION, System.nanoTime() - t);
+            }
+        }
+        return super.convertSelectionToString(selectedItem);
+    }
+
+    private void replaceTextWithSpannable(CharSequence text, int start, int end) {
+        Editable editable = getText();
+        SpanInfo spanInfo = mLastSpan;
+        mLastSpan = null;
+
+        if (spanInfo == null || !prepareSpanImage(spanInfo)) {
+            // no spans. fallback to the default.
+            editable.replace(start, end, text);
+            if (spanInfo != null) {
+                recycleSpanInfo(spanInfo);
+            }
+            return;
+        }
+
+        final MetricsListener metrics = mMetrics;
+        final long t = metrics != null ? System.nanoTime() : 0;
+
+        // registered in text order, so getSelectedItems() follows the text
+        final SpanInfo next = getSpanAfter(end);
+        editable.replace(start, end, text);
+        registerSpan(spanInfo, next);
+        addSpan(spanInfo, start, start + text.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        if (metrics != null) {
+            metrics.onTiming(MetricsListener.TIMING_TEXT_REPLACE, System.nanoTime() - t);
+        }
+    }
+
+    /**
+     * Make sure the span gets an image: loaded from the span cache, composed
+     * right now, or composed on the span executor and swapped in later.
+     *
+     * @return false if there is no span layer to compose.
+     */
+    private boolean prepareSpanImage(SpanInfo spanInfo) {
+        if (spanInfo.image != null) {
+            // loaded from the span cache
+            return true;
+        }
+
+        final int count = getSpanLayerCount();
+        if (count == 0) {
+            return false;
+        }
+
+        if (mSpanExecutor != null) {
+            PendingSpanImage pending = new PendingSpanImage(spanInfo, count);
+            pending.calculator = collectSpanLayers(spanInfo, pending.drawables, pending.calculator);
+            spanInfo.pending = pending;
+            mSpanExecutor.execute(pending);
+            return true;
+        }
+
+        if (mDrawables == null || mDrawables.length != count) {
+            mDrawables = new Drawable[count];
+        }
+
+        final Drawable[] drawables = mDrawables;
+        final ChipLayoutCalculator calculator =
+            collectSpanLayers(spanInfo, drawables, mLayoutCalculator);
+
+        final MetricsListener metrics = mMetrics;
+        final long t = metrics != null ? System.nanoTime() : 0;
+        Drawable image = composeSpanImage(drawables, calculator,
+                                          mRasterizeSpans ? getBitmapPool() : null);
+        if (metrics != null) {
+            metrics.onTiming(MetricsListener.TIMING_COMPOSE, System.nanoTime() - t);
+        }
+        Arrays.fill(drawables, null);
+
+        cacheSpanImage(spanInfo, image);
+        setSpanImage(spanInfo, image);
+        return true;
+    }
+
+    /**
+     * Number of layers of a span image, including the span background. 0 if
+     * there is no span layer to compose.
+     */
+    private int getSpanLayerCount() {
+        if (mChipStyle != null) {
+            return mChipStyle.getDrawableCount();
+        }
+
+        int count = 0;
+        for (int i = 0, size = mSpanLayers.size(); i < size; i++) {
+            if (mSpanLayers.get(i).drawable != null) {
+                count++;
+            }
+        }
+
+        if (count > 0 && mSpanBackground != null) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Clone the drawables of the span layers, and feed their geometry to the
+     * calculator. The layout is computed by {@link #composeSpanImage}.
+     *
+     * @return the calculator to compose with.
+     */
+    private ChipLayoutCalculator collectSpanLayers(SpanInfo span, Drawable[] drawables,
+                                                   ChipLayoutCalculator calculator) {
+        final MetricsListener metrics = mMetrics;
+        final long t = metrics != null ? System.nanoTime() : 0;
+
+        if (mChipStyle != null) {
+            calculator = collectStyleLayers(span, drawables, calculator);
+            if (metrics != null) {
+                metrics.onTiming(MetricsListener.TIMING_CLONE_DRAWABLES, System.nanoTime() - t);
+                metrics.onCounter(MetricsListener.COUNTER_DRAWABLES_ALLOCATED,
+                                  drawables.length + 1);
+            }
+            return calculator;
+        }
+
+        int idx = 0;
+        if (mSpanBackground != null) {
+            // always the bottom layer
+            drawables[idx++] = cloneDrawable(mSpanBackground);
+        }
+
+        calculator.begin();
+        for (int i = 0, size = mSpanLayers.size(); i < size; i++) {
+            SpanLayer layer = mSpanLayers.get(i);
+            if (layer.drawable == null) {
+                continue;
+            }
+            layer.idx = idx++;
+            drawables[layer.idx] = cloneDrawable(layer.drawable);
+            calculator.setLayer(layer.gravity, layer.width, layer.height,
+                                layer.leftMargin, layer.topMargin,
+                                layer.rightMargin, layer.bottomMargin);
+        }
+
+        if (metrics != null) {
+            metrics.onTiming(MetricsListener.TIMING_CLONE_DRAWABLES, System.nanoTime() - t);
+            // the clones, plus the LayerDrawable composing them
+            metrics.onCounter(MetricsListener.COUNTER_DRAWABLES_ALLOCATED, idx + 1);
+        }
+        return calculator;
+    }
+
+    /**
+     * Clone the static drawables of the chip style, and bind the variable ones.
+     * If the style has a static layout, the shared layout is returned.
+     */
+    private ChipLayoutCalculator collectStyleLayers(SpanInfo span, Drawable[] drawables,
+                                                    ChipLayoutCalculator calculator) {
+        final ChipStyle style = mChipStyle;
+        final int layers = style.getLayerCount();
+
+        Drawable[] bound = mBoundDrawables;
+        if (bound == null || bound.length != style.getVariableLayerCount()) {
+            bound = mBoundDrawables = new Drawable[style.getVariableLayerCount()];
+        }
+        if (mChipBinder != null && bound.length > 0) {
+            mChipBinder.bind(span.dropdownItem, bound);
+        }
+
+        final int offset = drawables.length - layers;
+        if (offset > 0) {
+            drawables[0] = cloneDrawable(style.background);
+        }
+        for (int i = 0, v = 0; i < layers; i++) {
+            Drawable d = style.drawables[i];
+            if (d != null) {
+                d = cloneDrawable(d);
+            } else {
+                d = bound[v];
+                bound[v++] = null;
+                if (d == null) {
+                    d = new ColorDrawable(Color.TRANSPARENT);
+                }
+            }
+            drawables[offset + i] = d;
+        }
+
+        if (style.isLayoutStatic()) {
+            return style.layout;
+        }
+
+        style.feed(calculator, drawables, offset);
+        return calculator;
+    }
+
+    /**
+     * Compose the image of a span. The drawables above the span background
+     * must match the layers fed to the calculator.
+     *
+     * @param pool if not null, the image will be rasterized.
+     */
+    private static Drawable composeSpanImage(Drawable[] drawables,
+                                             ChipLayoutCalculator calculator,
+                                             BitmapPool pool) {
+        calculator.end();
+
+        // LayerDrawable copies the array, so it is safe to reuse it.
+        LayerDrawable layerDrawable = new LayerDrawable(drawables);
+
+        final int offset = drawables.length - calculator.getLayerCount();
+        for (int i = offset; i < drawables.length; i++) {
+            final int layer = i - offset;
+            layerDrawable.setLayerInset(i,
+                                        calculator.getLeftInset(layer),
+                                        calculator.getTopInset(layer),
+                                        calculator.getRightInset(layer),
+                                        calculator.getBottomInset(layer));
+        }
+
+        final int w = calculator.getWidth();
+        final int h = calculator.getHeight();
+        layerDrawable.setBounds(0, 0, w, h);
+
+        if (pool == null) {
+            return layerDrawable;
+        }
+
+        RasterizedDrawable image = new RasterizedDrawable(layerDrawable, pool);
+        image.setBounds(0, 0, w, h);
+        return image;
+    }
+
+    private BitmapPool getBitmapPool() {
+        if (mBitmapPool == null) {
+            mBitmapPool = new BitmapPool(DEFAULT_BITMAP_POOL_SIZE);
+        }
+        return mBitmapPool;
+    }
+
+    /**
+     * A span image being composed on the span executor.
+     */
+    private class PendingSpanImage implements Runnable {
+        final SpanInfo span;
+        final Drawable[] drawables;
+        ChipLayoutCalculator calculator;
+        final BitmapPool pool;
+        final MetricsListener metrics;
+        volatile boolean cancelled;
+        Drawable image;
+
+        PendingSpanImage(SpanInfo span, int count) {
+            this.span = span;
+            this.drawables = new Drawable[count];
+            this.calculator = new ChipLayoutCalculator(count);
+            this.pool = mRasterizeSpans ? getBitmapPool() : null;
+            this.metrics = mMetrics;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+
+            final long t = metrics != null ? System.nanoTime() : 0;
+            image = composeSpanImage(drawables, calculator, pool);
+            if (image instanceof RasterizedDrawable) {
+                ((RasterizedDrawable) image).prepare();
+            }
+            if (metrics != null) {
+                metrics.onTiming(MetricsListener.TIMING_COMPOSE, System.nanoTime() - t);
+            }
+
+            post(new Runnable() {
+                    @Override
+                    public void run() {
+                        swapSpanImage(PendingSpanImage.this);
+                    }
+                });
+        }
+    }
+
+    /**
+     * Replace the placeholder of a span with the image composed on the span
+     * executor. Called on the UI thread.
+     */
+    private void swapSpanImage(PendingSpanImage pending) {
+        final SpanInfo span = pending.span;
+        if (pending.cancelled || span.pending != pending || !span.isRegistered()) {
+            // the span has been removed in the meantime
+            unrefSpanImage(pending.image);
+            return;
+        }
+
+        span.pending = null;
+
+        final Spannable host = getSpanHost(span);
+        if (host == null) {
+            unrefSpanImage(pending.image);
+            return;
+        }
+
+        cacheSpanImage(span, pending.image);
+        setSpanImage(span, pending.image);
+        host.setSpan(span.image, host.getSpanStart(span.clickable),
+                     host.getSpanEnd(span.clickable), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+
+    /**
+     * Return the text holding the span, which is the collapsed text if the span
+     * is collapsed, or null.
+     */
+    private Spannable getSpanHost(SpanInfo span) {
+        final Spannable text = getText();
+        if (text.getSpanStart(span.clickable) >= 0) {
+            return text;
+        }
+        if (mCollapsedText != null && mCollapsedText.getSpanStart(span.clickable) >= 0) {
+            return mCollapsedText;
+        }
+        return null;
+    }
+
+    private class OnSpanClickListener extends ClickableSpan {
         private SpanInfo mSpanInfo;
 
         OnSpanClickListener(SpanInfo span) {
             mSpanInfo = span;
         }
 
+        SpannedAutoCompleteView getView() {
+            return SpannedAutoCompleteView.this;
+        }
+
+        @Override
+        public void onClick(View widget) {
+            if (mCallback != null) {
+                mCallback.onSpanClick(SpannedAutoCompleteView.this, mSpanInfo.dropdownItem);
+            }
+
+            if (mAutoRemove) {
+                removeSpan(mSpanInfo);
+            }
+        }
+    }
+
+    private static class SpanCache extends LruCache<Object, Drawable> {
+
+        SpanCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Object key,
+                                    Drawable oldValue, Drawable newValue) {
+            unrefSpanImage(oldValue);
+        }
+    }
+
+    private class ExpandSpan extends ClickableSpan {
+        int sepLength;
+
         @Override
         public void onClick(View widget) {
-            if (mCallback != null) {
-                mCallback.onSpanClick(SpannedAutoCompleteView.this, mSpanInfo.dropdownItem);
+            expandSpans();
+            requestFocus();
+        }
+    }
+
+    /**
+     * Move the spans beyond the collapsed span limit out of the text, and put a
+     * "+N" span in their place.
+     */
+    private void collapseSpans() {
+        if (mCollapsedText != null || mCollapsedSpanLimit <= 0 ||
+            mSpanOffsets.size() <= mCollapsedSpanLimit) {
+            return;
+        }
+
+        // the first spans in text order stay
+        final int last = mCollapsedSpanLimit - 1;
+        final SpanInfo span = mSpanOffsets.get(last);
+        final Editable editable = getText();
+        final int start = mSpanOffsets.getEnd(last) + span.sepLength;
+        final int end = Math.min(getSpansEnd(), editable.length());
+        if (end <= start) {
+            return;
+        }
+
+        mCollapsedText = new SpannableStringBuilder(editable, start, end);
+        mExpandSpan = new ExpandSpan();
+
+        final int count = mSpanOffsets.size() - mCollapsedSpanLimit;
+        final SpannableStringBuilder counter = new SpannableStringBuilder("+" + count);
+        counter.setSpan(mExpandSpan, 0, counter.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        if (mSeparator != null) {
+            counter.append(mSeparator);
+            mExpandSpan.sepLength = mSeparator.length();
+        }
+
+        mSuspendSpanWatcher = true;
+        try {
+            editable.replace(start, end, counter);
+        } finally {
+            mSuspendSpanWatcher = false;
+        }
+    }
+
+    /**
+     * Put the collapsed spans back in place of the "+N" span.
+     */
+    private void expandSpans() {
+        if (mCollapsedText == null) {
+            return;
+        }
+
+        final Editable editable = getText();
+        final int start = editable.getSpanStart(mExpandSpan);
+        final int end = editable.getSpanEnd(mExpandSpan) + mExpandSpan.sepLength;
+        final SpannableStringBuilder collapsed = mCollapsedText;
+        mCollapsedText = null;
+
+        mSuspendSpanWatcher = true;
+        try {
+            editable.removeSpan(mExpandSpan);
+            if (start >= 0) {
+                editable.replace(start, Math.min(end, editable.length()), collapsed);
             }
+        } finally {
+            mSuspendSpanWatcher = false;
+            mExpandSpan = null;
+        }
+    }
 
-            if (mAutoRemove) {
-                removeSpan(mSpanInfo);
+    /**
+     * Update the "+N" span after a collapsed span has been removed.
+     */
+    private void updateExpandSpan() {
+        final Editable editable = getText();
+        final int start = editable.getSpanStart(mExpandSpan);
+        final int end = editable.getSpanEnd(mExpandSpan);
+        if (start < 0) {
+            return;
+        }
+
+        final int count = mCollapsedText.getSpans(0, mCollapsedText.length(),
+                                                   OnSpanClickListener.class).length;
+        mSuspendSpanWatcher = true;
+        try {
+            if (count == 0) {
+                editable.removeSpan(mExpandSpan);
+                editable.delete(start, Math.min(end + mExpandSpan.sepLength, editable.length()));
+                mCollapsedText = null;
+                mExpandSpan = null;
+            } else {
+                editable.replace(start, end, "+" + count);
+                editable.setSpan(mExpandSpan, start, start + String.valueOf(count).length() + 1,
+                                 Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
             }
+        } finally {
+            mSuspendSpanWatcher = false;
+        }
+    }
+
+    /**
+     * Return the first span starting at or after the text offset, collapsed
+     * spans included, or null.
+     */
+    private SpanInfo getSpanAfter(int offset) {
+        final int i = mSpanOffsets.ceiling(offset);
+        if (i < mSpanOffsets.size()) {
+            return mSpanOffsets.get(i);
+        }
+        if (mCollapsedText != null && offset <= getText().getSpanStart(mExpandSpan)) {
+            final SpanInfo[] collapsed = getCollapsedSpans();
+            return collapsed.length > 0 ? collapsed[0] : null;
+        }
+        return null;
+    }
+
+    /**
+     * Return the collapsed spans, in text order.
+     */
+    private SpanInfo[] getCollapsedSpans() {
+        final SpannableStringBuilder collapsed = mCollapsedText;
+        final OnSpanClickListener[] clickables =
+            collapsed.getSpans(0, collapsed.length(), OnSpanClickListener.class);
+
+        // sort by start, packed with the index into a long
+        final long[] order = new long[clickables.length];
+        for (int i = 0; i < clickables.length; i++) {
+            order[i] = ((long) collapsed.getSpanStart(clickables[i]) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        final SpanInfo[] spans = new SpanInfo[clickables.length];
+        for (int i = 0; i < clickables.length; i++) {
+            spans[i] = clickables[(int) order[i]].mSpanInfo;
+        }
+        return spans;
+    }
+
+    static class SavedState extends BaseSavedState {
+        Object[] keys;
+        // start and end of each key. from collapsedIndex on, the offsets are
+        // in collapsedText, which replaces [expandStart, expandEnd) on restore.
+        int[] offsets;
+        int collapsedIndex = -1;
+        String collapsedText;
+        int expandStart = -1;
+        int expandEnd = -1;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            keys = in.readArray(SavedState.class.getClassLoader());
+            offsets = in.createIntArray();
+            collapsedIndex = in.readInt();
+            collapsedText = in.readString();
+            expandStart = in.readInt();
+            expandEnd = in.readInt();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeArray(keys);
+            out.writeIntArray(offsets);
+            out.writeInt(collapsedIndex);
+            out.writeString(collapsedText);
+            out.writeInt(expandStart);
+            out.writeInt(expandEnd);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR =
+            new Parcelable.Creator<SavedState>() {
+                @Override
+                public SavedState createFromParcel(Parcel in) {
+                    return new SavedState(in);
+                }
+
+                @Override
+                public SavedState[] newArray(int size) {
+                    return new SavedState[size];
+                }
+            };
+    }
+
+    private class SpanWatcherFactory extends Editable.Factory {
+
+        @Override
+        public Editable newEditable(CharSequence source) {
+            Editable editable = super.newEditable(source);
+            attachSpanWatcher(editable);
+            return editable;
         }
     }
 
@@ -436,94 +2186,597 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
 
         @Override
         public void onSpanAdded(Spannable text, Object span, int start, int end) {
+            final MetricsListener metrics = mMetrics;
+            if (metrics == null || !isTokenBoundary(span)) {
+                spanAdded(span, start, end);
+                return;
+            }
+            final long t = System.nanoTime();
+            spanAdded(span, start, end);
+            metrics.onTiming(MetricsListener.TIMING_SPAN_WATCHER, System.nanoTime() - t);
+        }
+
+        @Override
+        public void onSpanRemoved(Spannable text, Object span, int start, int end) {
+            final MetricsListener metrics = mMetrics;
+            if (metrics == null || !isTokenBoundary(span)) {
+                spanRemoved(span);
+                return;
+            }
+            final long t = System.nanoTime();
+            spanRemoved(span);
+            metrics.onTiming(MetricsListener.TIMING_SPAN_WATCHER, System.nanoTime() - t);
+        }
+
+        private void spanAdded(Object span, int start, int end) {
+            if (isStale(span)) {
+                // copied along with text, e.g. pasted, from a removed chip or
+                // from another view. stripped once the text change is done.
+                mStaleSpans.add(span);
+                return;
+            }
+            if (isTokenBoundary(span)) {
+                if (mTextChanging) {
+                    // the tokenizer has not seen the text change yet
+                    mPendingTokenSpans.add(span);
+                } else {
+                    onBoundarySpanAdded(span, start, end);
+                }
+            }
+            if (mSuspendSpanWatcher) {
+                // bookkeeping and callbacks are done by the editor
+                return;
+            }
             if (span instanceof OnSpanClickListener) {
                 SpanInfo s = ((OnSpanClickListener) span).mSpanInfo;
                 s.sepLength = mSeparator != null ? mSeparator.length() : 0;
-                mTokenizer.setStart(end + s.sepLength);
                 if (mCallback != null) {
                     mCallback.onSpanAdded(SpannedAutoCompleteView.this, s.dropdownItem);
                 }
             }
         }
 
-        @Override
-        public void onSpanRemoved(Spannable text, Object span, int start, int end) {
+        private void spanRemoved(Object span) {
+            if (!mStaleSpans.isEmpty() && mStaleSpans.remove(span)) {
+                return;
+            }
+            if (isTokenBoundary(span)) {
+                mPendingTokenSpans.remove(span);
+                mTokenizer.onSpanRemoved(span);
+                if (span instanceof OnSpanClickListener) {
+                    mSpanOffsets.remove(((OnSpanClickListener) span).mSpanInfo);
+                }
+            }
+            if (mSuspendSpanWatcher) {
+                return;
+            }
             if (span instanceof OnSpanClickListener) {
                 SpanInfo s = ((OnSpanClickListener) span).mSpanInfo;
-                removeSpanInfo(s);
+                final boolean removed = removeSpanInfo(s);
                 if (mCallback != null) {
                     mCallback.onSpanRemoved(SpannedAutoCompleteView.this, s.dropdownItem);
                 }
+                if (removed) {
+                    recycleSpanInfo(s);
+                }
             }
         }
 
         @Override
         public void onSpanChanged(Spannable text, Object span, int previousStart,
                                   int previousEnd, int newStart, int newEnd) {
+            // spans shifted by a text change are tracked by the tokenizer. only
+            // the "+N" span is ever set again.
+            if (span == mExpandSpan && span != null) {
+                if (mTextChanging) {
+                    mPendingTokenSpans.add(span);
+                } else {
+                    mTokenizer.onSpanAdded(span, newStart, newEnd);
+                }
+            }
+        }
+
+        private boolean isTokenBoundary(Object span) {
+            return span instanceof OnSpanClickListener || span instanceof ExpandSpan;
+        }
+
+        // a chip span not registered in this view, or a "+N" span not current
+        private boolean isStale(Object span) {
+            if (span instanceof OnSpanClickListener) {
+                final OnSpanClickListener clickable = (OnSpanClickListener) span;
+                return clickable.getView() != SpannedAutoCompleteView.this ||
+                    !clickable.mSpanInfo.isRegistered();
+            }
+            return span instanceof ExpandSpan && span != mExpandSpan;
+        }
+    }
+
+    private class TextWatcherImpl implements TextWatcher {
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            mTextChanging = true;
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            if (before > 0 && !mSuspendSpanWatcher) {
+                findBrokenSpans(start, start + before);
+                findDroppedSpans(start, start + before);
+            }
+            mTokenizer.onTextChanged(start, before, count);
+            mSpanOffsets.onTextChanged(start, before, count);
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            mTextChanging = false;
+            for (int i = 0, count = mPendingTokenSpans.size(); i < count; i++) {
+                Object span = mPendingTokenSpans.get(i);
+                final int start = s.getSpanStart(span);
+                if (start >= 0) {
+                    onBoundarySpanAdded(span, start, s.getSpanEnd(span));
+                }
+            }
+            mPendingTokenSpans.clear();
+
+            if (!mStaleSpans.isEmpty()) {
+                removeStaleSpans(s);
+            }
+
+            if (!mDroppedSpans.isEmpty() || (mCollapsedText != null && !mSuspendSpanWatcher &&
+                                              s.getSpanStart(mExpandSpan) < 0)) {
+                unregisterDroppedSpans(s);
+            }
+
+            if (!mBrokenSpans.isEmpty()) {
+                // the deletion below is a text change of its own
+                final SpanInfo[] broken = mBrokenSpans.toArray(new SpanInfo[mBrokenSpans.size()]);
+                mBrokenSpans.clear();
+                for (SpanInfo span : broken) {
+                    deleteSpan(span, s);
+                }
+            }
+        }
+
+        // remove the stale spans, and the images over their text. the text
+        // itself is kept. the span watcher skips them while they are listed.
+        private void removeStaleSpans(Editable s) {
+            final Object[] stale = mStaleSpans.toArray();
+            for (Object span : stale) {
+                final int start = s.getSpanStart(span);
+                final int end = s.getSpanEnd(span);
+                if (start < 0) {
+                    continue;
+                }
+                for (ChipSpan image : s.getSpans(start, end, ChipSpan.class)) {
+                    if (s.getSpanStart(image) == start && s.getSpanEnd(image) == end) {
+                        s.removeSpan(image);
+                    }
+                }
+                s.removeSpan(span);
+            }
+            mStaleSpans.clear();
+        }
+
+        // chips entirely covered by the replaced text [start, end). normally
+        // their removal has been reported by now, but not when the whole text
+        // is replaced, e.g. by setText().
+        private void findDroppedSpans(int start, int end) {
+            for (int i = mSpanOffsets.ceiling(start), size = mSpanOffsets.size();
+                 i < size && mSpanOffsets.getEnd(i) <= end; i++) {
+                mDroppedSpans.add(mSpanOffsets.get(i));
+            }
+        }
+
+        // unregister the chips which are no longer in the text, along with the
+        // collapsed ones if the "+N" span is gone. they are not recycled, the
+        // previous text may still hold them.
+        private void unregisterDroppedSpans(Editable s) {
+            final List<SpanInfo> dropped = new ArrayList<SpanInfo>(mDroppedSpans);
+            mDroppedSpans.clear();
+            if (mCollapsedText != null && !mSuspendSpanWatcher &&
+                s.getSpanStart(mExpandSpan) < 0) {
+                dropped.addAll(Arrays.asList(getCollapsedSpans()));
+                mCollapsedText = null;
+                mExpandSpan = null;
+            }
+
+            for (int i = 0, count = dropped.size(); i < count; i++) {
+                final SpanInfo span = dropped.get(i);
+                if (s.getSpanStart(span.clickable) < 0 && removeSpanInfo(span) &&
+                    mCallback != null) {
+                    mCallback.onSpanRemoved(SpannedAutoCompleteView.this, span.dropdownItem);
+                }
+            }
+        }
+
+        // chips partially covered by the replaced text [start, end)
+        private void findBrokenSpans(int start, int end) {
+            int i = mSpanOffsets.floor(start);
+            if (i >= 0 && mSpanOffsets.getEnd(i) > start) {
+                mBrokenSpans.add(mSpanOffsets.get(i));
+            }
+            i = mSpanOffsets.floor(end);
+            if (i >= 0 && mSpanOffsets.getStart(i) >= start && mSpanOffsets.getEnd(i) > end) {
+                mBrokenSpans.add(mSpanOffsets.get(i));
+            }
+        }
+    }
+
+    private void onBoundarySpanAdded(Object span, int start, int end) {
+        mTokenizer.onSpanAdded(span, start, end);
+        if (span instanceof OnSpanClickListener) {
+            mSpanOffsets.add(((OnSpanClickListener) span).mSpanInfo, start, end);
+        }
+    }
+
+    /**
+     * Load the span image from the span cache.
+     *
+     * @return false if the image is not cached.
+     */
+    private boolean loadSpanImage(SpanInfo spanInfo) {
+        if (mSpanCache == null) {
+            return false;
+        }
+
+        Drawable drawable = mSpanCache.get(spanInfo.itemKey);
+        if (mMetrics != null) {
+            mMetrics.onCounter(drawable != null ? MetricsListener.COUNTER_CACHE_HITS :
+                               MetricsListener.COUNTER_CACHE_MISSES, 1);
+        }
+        if (drawable == null) {
+            return false;
+        }
+
+        setSpanImage(spanInfo, drawable);
+        return true;
+    }
+
+    private void setSpanImage(SpanInfo spanInfo, Drawable drawable) {
+        refSpanImage(drawable);
+        ChipSpan image = mChipSpanPool.acquire();
+        image.setDrawable(drawable);
+        spanInfo.image = image;
+    }
+
+    private void cacheSpanImage(SpanInfo spanInfo, Drawable drawable) {
+        if (mSpanCache != null) {
+            refSpanImage(drawable);
+            mSpanCache.put(spanInfo.itemKey, drawable);
+        }
+    }
+
+    private static void refSpanImage(Drawable drawable) {
+        if (drawable instanceof RasterizedDrawable) {
+            ((RasterizedDrawable) drawable).ref();
+        }
+    }
+
+    private static void unrefSpanImage(Drawable drawable) {
+        if (drawable instanceof RasterizedDrawable) {
+            ((RasterizedDrawable) drawable).unref();
         }
     }
 
+    private Object getItemKey(Object dropdownItem) {
+        return mItemKeyProvider != null ?
+            mItemKeyProvider.getItemKey(dropdownItem) : dropdownItem;
+    }
+
+    private CharSequence convertItemToString(Object dropdownItem) {
+        Filter filter = getFilter();
+        return filter != null ? filter.convertResultToString(dropdownItem)
+            : String.valueOf(dropdownItem);
+    }
+
     private Drawable cloneDrawable(Drawable drawable) {
         Drawable mutated = drawable.mutate();
         Drawable.ConstantState state = mutated.getConstantState();
         return state != null ? state.newDrawable() : mutated;
     }
 
-    private void updateSpanWatcher() {
-        Spannable spannable = getText();
-        final SpanWatcherImpl[] watchers =
-            spannable.getSpans(0, spannable.length(), SpanWatcherImpl.class);
-        for (int i = 0, count = watchers.length; i < count; i++) {
-            spannable.removeSpan(watchers[i]);
+    private void attachSpanWatcher(Spannable spannable) {
+        // SpanWatcher is a NoCopySpan, so a new Editable never inherits it.
+        if (spannable != null && mSpanWatcher != null) {
+            spannable.setSpan(mSpanWatcher, 0, spannable.length(),
+                              Spannable.SPAN_INCLUSIVE_INCLUSIVE);
         }
-        spannable.setSpan(mSpanWatcher, 0, spannable.length(), Spannable.SPAN_INCLUSIVE_INCLUSIVE);
     }
 
     private void addSpan(SpanInfo span, int start, int end, int flag) {
         Spannable spannable = getText();
-        spannable.setSpan(span.image, start, end, flag);
+        if (span.image != null) {
+            spannable.setSpan(span.image, start, end, flag);
+        }
         spannable.setSpan(span.clickable, start, end, flag);
     }
 
     private void removeSpan(SpanInfo span) {
-        Editable editable = getText();
-        int start = editable.getSpanStart(span.image);
-        int end = editable.getSpanEnd(span.image);
+        if (dropSpan(span)) {
+            setSelection(getText().length());
+        }
+    }
+
+    /**
+     * Remove the span along with its text. The selection is left where it is,
+     * shifted by the deletion.
+     *
+     * @return false if the span was collapsed, hence not in the text.
+     */
+    private boolean dropSpan(SpanInfo span) {
+        if (mCollapsedText != null && mCollapsedText.getSpanStart(span.clickable) >= 0) {
+            final int start = mCollapsedText.getSpanStart(span.clickable);
+            final int end = mCollapsedText.getSpanEnd(span.clickable);
+            if (span.image != null) {
+                mCollapsedText.removeSpan(span.image);
+            }
+            mCollapsedText.removeSpan(span.clickable);
+            mCollapsedText.delete(start, Math.min(end + span.sepLength, mCollapsedText.length()));
+            removeSpanInfo(span);
+            updateExpandSpan();
+            if (mCallback != null) {
+                mCallback.onSpanRemoved(this, span.dropdownItem);
+            }
+            recycleSpanInfo(span);
+            return false;
+        }
+
+        // the span watcher unregisters and recycles the span
+        if (deleteSpan(span, getText()) < 0 && removeSpanInfo(span)) {
+            recycleSpanInfo(span);
+        }
+        return true;
+    }
+
+    /**
+     * Delete the span, its text and its separator, if still there.
+     *
+     * @return the start of the deleted text, or -1 if the span is not in the text.
+     */
+    private int deleteSpan(SpanInfo span, Editable editable) {
+        final int start = mSpanOffsets.getStart(span);
+        int end = mSpanOffsets.getEnd(span);
+        if (start < 0) {
+            return -1;
+        }
+        if (hasSeparatorAt(editable, end, span.sepLength)) {
+            end += span.sepLength;
+        }
 
-        editable.removeSpan(span.image);
+        if (span.image != null) {
+            editable.removeSpan(span.image);
+        }
         editable.removeSpan(span.clickable);
-        editable.delete(start, end + span.sepLength);
-        removeSpanInfo(span);
-        setSelection(editable.length());
+        editable.delete(start, end);
+        return start;
+    }
+
+    private boolean hasSeparatorAt(CharSequence text, int offset, int sepLength) {
+        if (sepLength <= 0 || offset + sepLength > text.length()) {
+            return false;
+        }
+        if (mSeparator == null || mSeparator.length() != sepLength) {
+            // the separator has changed since. trust the recorded length.
+            return true;
+        }
+        return TextUtils.regionMatches(text, offset, mSeparator, 0, sepLength);
     }
 
     private void addSpanInfo(SpanInfo span) {
-        mSpans.add(span);
+        // registered once in the text, see replaceTextWithSpannable()
         mLastSpan = span;
     }
 
-    private void removeSpanInfo(SpanInfo span) {
-        mSpans.remove(span);
-        if (mSpans.isEmpty()) {
-            mTokenizer.setStart(0);
-        } else {
-            SpanInfo s = mSpans.get(mSpans.size() - 1);
-            int end = getText().getSpanEnd(s.image) + s.sepLength;
-            mTokenizer.setStart(end);
+    private void registerSpan(SpanInfo span) {
+        registerSpan(span, null);
+    }
+
+    /**
+     * Register the span before the given one, or last if before is null.
+     */
+    private void registerSpan(SpanInfo span, SpanInfo before) {
+        mSpans.insertBefore(span, span.itemKey, before);
+        mSelectionVersion++;
+        if (mOnSpansChangedListener != null) {
+            mSpanChanges.onAdded(span.itemKey, span.dropdownItem);
+            scheduleSpansChanged();
+        }
+        if (mMetrics != null) {
+            mMetrics.onCounter(MetricsListener.COUNTER_SPANS_CREATED, 1);
+        }
+        if (span.itemKey != null && mSelectedKeys.add(span.itemKey)) {
+            onSelectionChanged();
+        }
+    }
+
+    private boolean unregisterSpan(SpanInfo span) {
+        if (!mSpans.remove(span)) {
+            return false;
         }
+        mSelectionVersion++;
+        if (mOnSpansChangedListener != null) {
+            mSpanChanges.onRemoved(span.itemKey, span.dropdownItem);
+            scheduleSpansChanged();
+        }
+        if (mMetrics != null) {
+            mMetrics.onCounter(MetricsListener.COUNTER_SPANS_REMOVED, 1);
+        }
+        if (span.itemKey != null && !mSpans.contains(span.itemKey) &&
+            mSelectedKeys.remove(span.itemKey)) {
+            onSelectionChanged();
+        }
+        return true;
+    }
+
+    private void scheduleSpansChanged() {
+        if (!mSpansChangedPosted && !mInBatchEdit) {
+            mSpansChangedPosted = true;
+            post(mSpansChangedRunnable);
+        }
+    }
+
+    private void dispatchSpansChanged() {
+        final OnSpansChangedListener listener = mOnSpansChangedListener;
+        if (listener == null || mSpanChanges.isEmpty()) {
+            return;
+        }
+        final List<Object> added = new ArrayList<Object>();
+        final List<Object> removed = new ArrayList<Object>();
+        final List<Object> moved = new ArrayList<Object>();
+        mSpanChanges.drain(added, removed, moved);
+        if (!added.isEmpty() || !removed.isEmpty() || !moved.isEmpty()) {
+            listener.onSpansChanged(this, added, removed, moved);
+        }
+    }
+
+    private void onSelectionChanged() {
+        if (mExcludeSelected) {
+            Filter filter = getFilter();
+            if (filter instanceof SuggestionFilter) {
+                ((SuggestionFilter<?>) filter).invalidate();
+            }
+        }
+    }
+
+    /**
+     * @return false if the span was not registered.
+     */
+    private boolean removeSpanInfo(SpanInfo span) {
+        if (!unregisterSpan(span)) {
+            return false;
+        }
+        if (span.pending != null) {
+            span.pending.cancelled = true;
+            span.pending = null;
+        }
+        if (span.image != null) {
+            unrefSpanImage(span.image.getDrawable());
+        }
+        return true;
+    }
+
+    private SpanInfo obtainSpanInfo(Object dropdownItem) {
+        SpanInfo span = mSpanInfoPool.acquire();
+        while (span.isRegistered()) {
+            // released while still in use. leave it to its chip.
+            span = mSpanInfoPool.acquire();
+        }
+        span.dropdownItem = dropdownItem;
+        span.itemKey = getItemKey(dropdownItem);
+        return span;
+    }
+
+    /**
+     * Give an unregistered span, and its image span, back to the pools. The
+     * span must be out of the text, see {@link #stripClipSpans()}. A span still
+     * registered is left alone.
+     */
+    private void recycleSpanInfo(SpanInfo span) {
+        if (span.isRegistered()) {
+            return;
+        }
+        if (span.image != null) {
+            span.image.setDrawable(null);
+            mChipSpanPool.release(span.image);
+        }
+        span.reset();
+        mSpanInfoPool.release(span);
     }
 
-    public static class DefaultTokenizer implements Tokenizer {
+    /**
+     * Return the offset right after the last span and its separator, or 0.
+     */
+    private int getSpansEnd() {
+        final Editable editable = getText();
+        final int size = mSpanOffsets.size();
+        int end = 0;
+        if (size > 0) {
+            end = mSpanOffsets.getEnd(size - 1) + mSpanOffsets.get(size - 1).sepLength;
+        }
+        if (mExpandSpan != null && editable.getSpanEnd(mExpandSpan) >= 0) {
+            end = Math.max(end, editable.getSpanEnd(mExpandSpan) + mExpandSpan.sepLength);
+        }
+        return end;
+    }
+
+    /**
+     * The default tokenizer. A token starts after the previous span and its
+     * separator, and ends at the next span. The spans are kept in a
+     * {@link SpanOffsetIndex}, so both lookups are O(log n) at any cursor
+     * position. Keeping the index up to date is not always that cheap: adding or
+     * removing a span, or editing far from the previous edit, is O(n).
+     */
+    public static class DefaultTokenizer implements SpanTokenizer {
+        private final SpanOffsetIndex<Object> mIndex = new SpanOffsetIndex<Object>();
+        private CharSequence mSeparator;
+
+        /**
+         * @deprecated The token boundaries are found from the span offsets. This
+         * is still kept as the offset right after the last span and its
+         * separator.
+         */
+        @Deprecated
         protected int mStart;
 
+        /**
+         * @deprecated The tokenizer tracks the spans itself, see
+         * {@link #onSpanAdded}. This has no effect on the token boundaries.
+         */
+        @Deprecated
         public void setStart(int start) {
             mStart = start;
         }
 
+        @Override
+        public void setSeparator(CharSequence separator) {
+            mSeparator = separator;
+        }
+
+        @Override
+        public void onSpanAdded(Object span, int start, int end) {
+            mIndex.add(span, start, end);
+            updateStart();
+        }
+
+        @Override
+        public void onSpanRemoved(Object span) {
+            mIndex.remove(span);
+            updateStart();
+        }
+
+        @Override
+        public void onTextChanged(int start, int before, int count) {
+            mIndex.onTextChanged(start, before, count);
+            updateStart();
+        }
+
+        private void updateStart() {
+            final int size = mIndex.size();
+            mStart = size > 0 ? mIndex.getEnd(size - 1) +
+                (mSeparator != null ? mSeparator.length() : 0) : 0;
+        }
+
         @Override
         public int findTokenStart(CharSequence text, int cursor) {
-            int i = mStart;
-            while (i < cursor && text.charAt(i) == ' ') {
+            int i = 0;
+            final int prev = mIndex.floor(cursor);
+            if (prev >= 0) {
+                i = mIndex.getEnd(prev);
+                if (i > cursor) {
+                    // inside a span
+                    return cursor;
+                }
+            }
+
+            final CharSequence sep = mSeparator;
+            final int sepLength = sep != null ? sep.length() : 0;
+            if (sepLength > 0 && i + sepLength <= cursor &&
+                TextUtils.regionMatches(text, i, sep, 0, sepLength)) {
+                i += sepLength;
+            }
+            while (i < cursor && Character.isWhitespace(text.charAt(i))) {
                 i++;
             }
             return i;
@@ -531,7 +2784,14 @@ public class SpannedAutoCompleteView extends MultiAutoCompleteTextView {
 
         @Override
         public int findTokenEnd(CharSequence text, int cursor) {
-            return text.length();
+            final int prev = mIndex.floor(cursor);
+            if (prev >= 0 && mIndex.getEnd(prev) > cursor) {
+                // inside a span
+                return cursor;
+            }
+            final int next = mIndex.ceiling(cursor);
+            return next < mIndex.size() ?
+                Math.min(mIndex.getStart(next), text.length()) : text.length();
         }
 
         @Override
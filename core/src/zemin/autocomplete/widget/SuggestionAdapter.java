@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import android.content.Context;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An adapter which shows the suggestions of a {@link SuggestionSource}, e.g. a
+ * {@link PrefixIndex}, for {@link SpannedAutoCompleteView}.
+ *
+ * Subclasses only need to implement {@link #getView}.
+ */
+public abstract class SuggestionAdapter<T> extends BaseAdapter implements Filterable {
+
+    public static final int DEFAULT_LIMIT = 50;
+
+    private final Context mContext;
+    private volatile SuggestionSource<T> mSource;
+    private volatile int mLimit = DEFAULT_LIMIT;
+    private List<T> mResults = Collections.emptyList();
+    private SuggestionFilter<T> mFilter;
+
+    public SuggestionAdapter(Context context, SuggestionSource<T> source) {
+        mContext = context;
+        mSource = source;
+    }
+
+    public Context getContext() {
+        return mContext;
+    }
+
+    public SuggestionSource<T> getSource() {
+        return mSource;
+    }
+
+    public void setSource(SuggestionSource<T> source) {
+        mSource = source;
+        if (mFilter != null) {
+            mFilter.invalidate();
+        }
+    }
+
+    /**
+     * Set the maximum number of suggestions shown.
+     */
+    public void setLimit(int limit) {
+        mLimit = limit;
+        if (mFilter != null) {
+            mFilter.invalidate();
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mResults.size();
+    }
+
+    @Override
+    public T getItem(int position) {
+        return mResults.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public Filter getFilter() {
+        if (mFilter == null) {
+            mFilter = new SourceFilter();
+        }
+        return mFilter;
+    }
+
+    private class SourceFilter extends SuggestionFilter<T> {
+
+        // the limit of the last query, accessed on the filter thread only
+        private int mQueryLimit;
+
+        private final SuggestionSource.Cancellation mCancellation =
+            new SuggestionSource.Cancellation() {
+                @Override
+                public boolean isCancelled() {
+                    return SourceFilter.this.isCancelled();
+                }
+            };
+
+        @Override
+        protected List<T> getCandidates(CharSequence constraint) {
+            mQueryLimit = mLimit;
+            if (constraint == null || constraint.length() == 0) {
+                return Collections.emptyList();
+            }
+
+            final SuggestionSource<T> source = mSource;
+            final int limit = mQueryLimit;
+            List<T> candidates = querySource(source, constraint, limit);
+
+            // fetch as many more candidates as are excluded, until the results
+            // are full or the source runs out of matches
+            final Exclusion exclusion = getExclusion();
+            if (exclusion != null) {
+                while (candidates != null && candidates.size() >= mQueryLimit &&
+                       !isCancelled()) {
+                    final int excluded = countExcluded(candidates, exclusion);
+                    if (candidates.size() - excluded >= limit) {
+                        break;
+                    }
+                    mQueryLimit = limit + excluded;
+                    candidates = querySource(source, constraint, mQueryLimit);
+                }
+            }
+            // cancelled. performFiltering() drops the results anyway.
+            return candidates != null ? candidates : Collections.<T>emptyList();
+        }
+
+        // return null if cancelled
+        @SuppressWarnings("unchecked")
+        private List<T> querySource(SuggestionSource<T> source, CharSequence constraint,
+                                    int limit) {
+            if (source instanceof SuggestionSource.Cancellable) {
+                return ((SuggestionSource.Cancellable<T>) source)
+                    .query(constraint, limit, mCancellation);
+            }
+            return source.query(constraint, limit);
+        }
+
+        private int countExcluded(List<T> candidates, Exclusion exclusion) {
+            int excluded = 0;
+            for (int i = 0, count = candidates.size(); i < count; i++) {
+                if (exclusion.isExcluded(candidates.get(i))) {
+                    excluded++;
+                }
+            }
+            return excluded;
+        }
+
+        @Override
+        protected boolean matches(T item, CharSequence constraint) {
+            return mSource.matches(item, constraint);
+        }
+
+        @Override
+        protected boolean isRefinement(String previous, CharSequence constraint) {
+            // an empty constraint yields no suggestions at all
+            return previous != null && previous.length() > 0 &&
+                super.isRefinement(previous, constraint);
+        }
+
+        @Override
+        protected boolean isRefinable(List<T> candidates) {
+            // truncated results can't be narrowed down, ranked ones would keep
+            // the ranking of the previous constraint
+            return !(mSource instanceof SuggestionSource.Ranked) &&
+                candidates.size() < mQueryLimit;
+        }
+
+        @Override
+        protected void onResults(CharSequence constraint, List<T> results) {
+            mResults = results;
+            if (results.isEmpty()) {
+                notifyDataSetInvalidated();
+            } else {
+                notifyDataSetChanged();
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import android.widget.Filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link Filter} which can be cancelled, and which narrows down the previous
+ * results instead of the whole data set when the new constraint refines the
+ * previous one (e.g. "jo" -> "joh").
+ *
+ * {@link SpannedAutoCompleteView} cancels the filtering in progress as soon as
+ * the user types, so stale results are never published.
+ */
+public abstract class SuggestionFilter<T> extends Filter {
+
+    public interface Exclusion {
+
+        /**
+         * Return true if the item must not be suggested. Called on the filter
+         * thread.
+         */
+        boolean isExcluded(Object item);
+    }
+
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private volatile boolean mInvalidated;
+    private volatile int mPublishedCount;
+    private volatile Exclusion mExclusion;
+
+    // accessed on the filter thread only
+    private int mRunningGeneration;
+    private String mLastConstraint;
+    private List<T> mLastResults;
+
+    /**
+     * Return the candidates for the constraint, typically the whole data set.
+     * Called on the filter thread.
+     */
+    protected abstract List<T> getCandidates(CharSequence constraint);
+
+    /**
+     * Return true if the item matches the constraint. Called on the filter
+     * thread.
+     */
+    protected abstract boolean matches(T item, CharSequence constraint);
+
+    /**
+     * Called on the UI thread with the results of the latest constraint.
+     */
+    protected abstract void onResults(CharSequence constraint, List<T> results);
+
+    /**
+     * Cancel the filtering in progress, if any. Its results will be dropped.
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Drop the results kept for refinement. Must be called whenever the data set
+     * changes.
+     */
+    public void invalidate() {
+        mInvalidated = true;
+    }
+
+    /**
+     * Set the items to leave out of the results.
+     */
+    public void setExclusion(Exclusion exclusion) {
+        if (mExclusion != exclusion) {
+            mExclusion = exclusion;
+            invalidate();
+        }
+    }
+
+    /**
+     * Return the items to leave out of the results, or null. Sources which
+     * truncate the candidates should fetch that many more candidates as are
+     * excluded, so the excluded items do not take the place of suggestions.
+     */
+    protected Exclusion getExclusion() {
+        return mExclusion;
+    }
+
+    /**
+     * Return true if the filtering in progress has been cancelled. Long-running
+     * {@link #query} implementations should check it regularly.
+     */
+    protected boolean isCancelled() {
+        return mRunningGeneration != mGeneration.get();
+    }
+
+    /**
+     * Return true if every item matching constraint also matches previous, so
+     * the previous results can be narrowed down instead of starting over.
+     */
+    protected boolean isRefinement(String previous, CharSequence constraint) {
+        return previous != null && constraint != null &&
+            constraint.length() >= previous.length() &&
+            constraint.toString().startsWith(previous);
+    }
+
+    /**
+     * Return true if the candidates hold all matches of the constraint, so the
+     * results can be refined later. The candidates are those returned by
+     * {@link #getCandidates}, before any item is excluded. Implementations which
+     * truncate the candidates should return false when they did.
+     */
+    protected boolean isRefinable(List<T> candidates) {
+        return true;
+    }
+
+    /**
+     * Collect the candidates matching the constraint, or return null if
+     * cancelled.
+     */
+    protected List<T> query(CharSequence constraint, List<T> candidates) {
+        final Exclusion exclusion = mExclusion;
+        final List<T> results = new ArrayList<T>();
+        for (int i = 0, count = candidates.size(); i < count; i++) {
+            if (i % CANCEL_CHECK_INTERVAL == 0 && isCancelled()) {
+                return null;
+            }
+            T item = candidates.get(i);
+            if (exclusion != null && exclusion.isExcluded(item)) {
+                continue;
+            }
+            if (matches(item, constraint)) {
+                results.add(item);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    protected FilterResults performFiltering(CharSequence constraint) {
+        mRunningGeneration = mGeneration.get();
+
+        if (mInvalidated) {
+            mInvalidated = false;
+            mLastConstraint = null;
+            mLastResults = null;
+        }
+
+        List<T> candidates = null;
+        boolean refinable = false;
+        if (mLastResults != null && isRefinement(mLastConstraint, constraint)) {
+            // a subset of all matches holds all matches of the refinement
+            candidates = mLastResults;
+            refinable = true;
+        }
+        if (candidates == null) {
+            candidates = getCandidates(constraint);
+            refinable = isRefinable(candidates);
+        }
+
+        final FilterResults results = new FilterResults();
+        final List<T> values = isCancelled() ? null : query(constraint, candidates);
+        if (values == null) {
+            // cancelled. keep the dropdown as it is until newer results arrive.
+            results.count = mPublishedCount;
+            return results;
+        }
+
+        if (refinable) {
+            mLastConstraint = constraint != null ? constraint.toString() : null;
+            mLastResults = values;
+        } else {
+            mLastConstraint = null;
+            mLastResults = null;
+        }
+
+        results.values = values;
+        results.count = values.size();
+        return results;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void publishResults(CharSequence constraint, FilterResults results) {
+        if (results.values == null) {
+            return;
+        }
+        mPublishedCount = results.count;
+        onResults(constraint, (List<T>) results.values);
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+/**
+ * Scores how well a candidate matches what the user has typed.
+ *
+ * @see FuzzySuggestionSource
+ */
+public interface SuggestionScorer {
+
+    /**
+     * Return the score of the candidate, the higher the better, or a negative
+     * value if the candidate does not match at all. Called on the filter
+     * thread, once per candidate, so implementations should not allocate.
+     */
+    int score(CharSequence candidate, CharSequence query);
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+import java.util.List;
+
+/**
+ * A source of suggestions for {@link SuggestionAdapter}.
+ *
+ * Implementations must be safe to query from the filter thread.
+ */
+public interface SuggestionSource<T> {
+
+    interface KeyFunction<T> {
+
+        /**
+         * Return the text an item is matched against.
+         */
+        String getKey(T item);
+    }
+
+    /**
+     * A source which can look an item up by its exact key, e.g. to resolve
+     * pasted text without a query per token.
+     */
+    interface KeyLookup<T> {
+
+        /**
+         * Return the first item whose key equals key, ignoring case, or null.
+         */
+        T lookup(CharSequence key);
+    }
+
+    /**
+     * Marks a source which orders its results by how well they match the
+     * constraint. {@link SuggestionAdapter} queries such a source afresh for
+     * every constraint instead of narrowing down the previous results, whose
+     * order would be stale.
+     */
+    interface Ranked {
+    }
+
+    /**
+     * Tells a query in progress whether its results are still wanted.
+     */
+    interface Cancellation {
+
+        boolean isCancelled();
+    }
+
+    /**
+     * A source whose queries can be abandoned midway, e.g. a scan of a large
+     * data set superseded by a newer constraint.
+     */
+    interface Cancellable<T> {
+
+        /**
+         * Same as {@link SuggestionSource#query}, but return null as soon as
+         * cancellation is cancelled.
+         */
+        List<T> query(CharSequence constraint, int limit, Cancellation cancellation);
+    }
+
+    /**
+     * Return at most limit items matching the constraint, best first.
+     */
+    List<T> query(CharSequence constraint, int limit);
+
+    /**
+     * Return true if the item matches the constraint.
+     */
+    boolean matches(T item, CharSequence constraint);
+}
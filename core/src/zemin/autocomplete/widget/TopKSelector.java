@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zemin.autocomplete.widget;
+
+/**
+ * Keeps the k best (index, score) pairs offered to it, in a fixed-size min-heap
+ * of primitive ints. Offering a candidate costs O(log k) and never allocates.
+ * On equal scores, the lower index wins.
+ *
+ * This class has no Android dependencies.
+ */
+public class TopKSelector {
+
+    private final int[] mIndices;
+    private final int[] mScores;
+    private int mSize;
+
+    public TopKSelector(int k) {
+        mIndices = new int[k];
+        mScores = new int[k];
+    }
+
+    public int capacity() {
+        return mIndices.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Offer a candidate.
+     *
+     * @return true if the candidate is kept, for now.
+     */
+    public boolean offer(int index, int score) {
+        final int k = mIndices.length;
+        if (k == 0) {
+            return false;
+        }
+
+        if (mSize < k) {
+            mIndices[mSize] = index;
+            mScores[mSize] = score;
+            siftUp(mSize++);
+            return true;
+        }
+
+        if (!better(index, score, mIndices[0], mScores[0])) {
+            return false;
+        }
+
+        mIndices[0] = index;
+        mScores[0] = score;
+        siftDown(0, mSize);
+        return true;
+    }
+
+    /**
+     * Move the kept indices, best first, into out, and clear the selector.
+     *
+     * @return the number of indices.
+     */
+    public int drainTo(int[] out) {
+        final int count = mSize;
+
+        // heap sort in place: the worst goes to the end each round
+        for (int end = count - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+
+        // the arrays are now sorted best first
+        System.arraycopy(mIndices, 0, out, 0, count);
+        mSize = 0;
+        return count;
+    }
+
+    private static boolean better(int i1, int s1, int i2, int s2) {
+        return s1 > s2 || (s1 == s2 && i1 < i2);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (!better(mIndices[parent], mScores[parent], mIndices[i], mScores[i])) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            final int l = 2 * i + 1;
+            if (l >= size) {
+                break;
+            }
+            int worst = l;
+            final int r = l + 1;
+            if (r < size && better(mIndices[l], mScores[l], mIndices[r], mScores[r])) {
+                worst = r;
+            }
+            if (!better(mIndices[i], mScores[i], mIndices[worst], mScores[worst])) {
+                break;
+            }
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int t = mIndices[a];
+        mIndices[a] = mIndices[b];
+        mIndices[b] = t;
+        t = mScores[a];
+        mScores[a] = mScores[b];
+        mScores[b] = t;
+    }
+}
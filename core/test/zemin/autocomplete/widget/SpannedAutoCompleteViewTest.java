@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import android.graphics.drawable.ShapeDrawable;
+import android.text.Editable;
+import android.text.SpanWatcher;
+import android.text.style.ClickableSpan;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the view with thousands of spans, through the same paths as the user:
+ * adding, removing, clicking, and typing between the spans.
+ *
+ * Every span text has the same length, so span i covers
+ * [i * STRIDE, i * STRIDE + LENGTH), followed by the " " separator.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class SpannedAutoCompleteViewTest {
+
+    static final int N = 1000;
+    static final int LENGTH = 6;
+    static final int STRIDE = LENGTH + 1;
+
+    // the time per operation with 4N spans must stay under RATIO times the
+    // time with N spans. A linear cost would be about 4.
+    static final double RATIO = 3;
+    static final int ROUNDS = 7;
+    static final int OPS = 100;
+
+    static final class RecordingCallback extends SpannedAutoCompleteView.SimpleCallback {
+        final List<Object> created = new ArrayList<Object>();
+        final List<Object> added = new ArrayList<Object>();
+        final List<Object> removed = new ArrayList<Object>();
+        final List<Object> clicked = new ArrayList<Object>();
+
+        @Override
+        public void onSpanCreate(SpannedAutoCompleteView view, Object dropdownItem) {
+            created.add(dropdownItem);
+        }
+
+        @Override
+        public void onSpanClick(SpannedAutoCompleteView view, Object dropdownItem) {
+            clicked.add(dropdownItem);
+        }
+
+        @Override
+        public void onSpanAdded(SpannedAutoCompleteView view, Object dropdownItem) {
+            added.add(dropdownItem);
+        }
+
+        @Override
+        public void onSpanRemoved(SpannedAutoCompleteView view, Object dropdownItem) {
+            removed.add(dropdownItem);
+        }
+
+        void clear() {
+            created.clear();
+            added.clear();
+            removed.clear();
+            clicked.clear();
+        }
+    }
+
+    SpannedAutoCompleteView view;
+    SpannedAutoCompleteView.DefaultTokenizer tokenizer;
+    RecordingCallback callback;
+
+    @Before
+    public void setUp() {
+        view = new SpannedAutoCompleteView(RuntimeEnvironment.application);
+
+        ShapeDrawable drawable = new ShapeDrawable();
+        drawable.setIntrinsicWidth(40);
+        drawable.setIntrinsicHeight(20);
+        view.createSpanLayer().setDrawable(drawable);
+
+        tokenizer = new SpannedAutoCompleteView.DefaultTokenizer();
+        view.setTokenizer(tokenizer);
+
+        callback = new RecordingCallback();
+        view.setCallback(callback);
+    }
+
+    static String item(int i) {
+        return String.format(Locale.US, "c%05d", i);
+    }
+
+    static List<Object> items(int from, int to) {
+        List<Object> items = new ArrayList<Object>(to - from);
+        for (int i = from; i < to; i++) {
+            items.add(item(i));
+        }
+        return items;
+    }
+
+    static int start(int i) {
+        return i * STRIDE;
+    }
+
+    void addOne(int i) {
+        view.addSpans(Collections.singletonList(item(i)));
+    }
+
+    void assertSpans(List<Object> expected) {
+        assertEquals(expected, view.getSelectedItems());
+
+        final Editable text = view.getText();
+        assertEquals(expected.size() * STRIDE, text.length());
+        for (int i = 0, count = expected.size(); i < count; i++) {
+            final int start = start(i);
+            assertEquals(expected.get(i), text.subSequence(start, start + LENGTH).toString());
+            assertEquals(expected.get(i), view.getSpanItemAt(start));
+            assertEquals(expected.get(i), view.getSpanItemAt(start + LENGTH - 1));
+            assertNull(view.getSpanItemAt(start + LENGTH));
+
+            // a token starts after the separator, and ends at the next span
+            assertEquals(start + STRIDE, tokenizer.findTokenStart(text, start + STRIDE));
+            assertEquals(start + STRIDE, tokenizer.findTokenEnd(text, start + LENGTH + 1));
+        }
+    }
+
+    /**
+     * The view attaches its span watcher once to each Editable, covering the
+     * whole text. TextView attaches watchers of its own, which are left out.
+     */
+    void assertOneSpanWatcher() {
+        final Editable text = view.getText();
+        int count = 0;
+        for (SpanWatcher watcher : text.getSpans(0, text.length(), SpanWatcher.class)) {
+            if (watcher.getClass().getEnclosingClass() == SpannedAutoCompleteView.class) {
+                assertEquals(0, text.getSpanStart(watcher));
+                assertEquals(text.length(), text.getSpanEnd(watcher));
+                count++;
+            }
+        }
+        assertEquals(1, count);
+    }
+
+    @Test
+    public void addsBatch() {
+        List<Object> items = items(0, N);
+        view.addSpans(items);
+
+        assertEquals(items, callback.created);
+        assertEquals(items, callback.added);
+        assertTrue(callback.removed.isEmpty());
+        assertSpans(items);
+    }
+
+    @Test
+    public void addsOneAtATime() {
+        List<Object> items = items(0, N);
+        for (int i = 0; i < N; i++) {
+            addOne(i);
+
+            // the token after the new span starts right after its separator
+            final Editable text = view.getText();
+            assertEquals(start(i + 1), text.length());
+            assertEquals(start(i + 1), tokenizer.findTokenStart(text, text.length()));
+            assertEquals(text.length(), tokenizer.findTokenEnd(text, text.length()));
+        }
+
+        assertEquals(items, callback.created);
+        assertEquals(items, callback.added);
+        assertTrue(callback.removed.isEmpty());
+        assertSpans(items);
+        assertOneSpanWatcher();
+    }
+
+    @Test
+    public void keepsSpanWatcherOnNewText() {
+        view.addSpans(items(0, N));
+        view.setText("");
+        assertOneSpanWatcher();
+
+        for (int i = 0; i < N; i++) {
+            addOne(i);
+        }
+        assertOneSpanWatcher();
+        assertSpans(items(0, N));
+    }
+
+    @Test
+    public void removesOnTextDeletion() {
+        view.addSpans(items(0, N));
+        callback.clear();
+
+        // deleting the text of a span is only seen through the span watcher
+        List<Object> expected = new ArrayList<Object>(items(0, N));
+        List<Object> removed = new ArrayList<Object>();
+        for (int i = N - 1; i >= 0; i -= 2) {
+            final int start = start(i);
+            view.getText().delete(start, start + STRIDE);
+            removed.add(item(i));
+            expected.remove(i);
+        }
+
+        assertEquals(removed, callback.removed);
+        assertSpans(expected);
+        assertOneSpanWatcher();
+    }
+
+    @Test
+    public void removesByItem() {
+        view.addSpans(items(0, N));
+        callback.clear();
+
+        List<Object> expected = new ArrayList<Object>();
+        List<Object> removed = new ArrayList<Object>();
+        for (int i = 0; i < N; i++) {
+            if ((i & 1) == 0) {
+                view.removeSpan(item(i));
+                removed.add(item(i));
+            } else {
+                expected.add(item(i));
+            }
+        }
+
+        assertEquals(removed, callback.removed);
+        assertTrue(callback.added.isEmpty());
+        assertSpans(expected);
+    }
+
+    @Test
+    public void autoRemovesOnClick() {
+        view.setAutoRemove(true);
+        view.addSpans(items(0, N));
+        callback.clear();
+
+        // click every third span, from the last to the first
+        List<Object> expected = new ArrayList<Object>(items(0, N));
+        List<Object> clicked = new ArrayList<Object>();
+        for (int i = N - 1; i >= 0; i -= 3) {
+            final int start = start(i);
+            ClickableSpan[] spans = view.getText().getSpans(start, start + 1, ClickableSpan.class);
+            assertEquals(1, spans.length);
+            spans[0].onClick(view);
+            clicked.add(item(i));
+            expected.remove(i);
+        }
+
+        assertEquals(clicked, callback.clicked);
+        assertEquals(clicked, callback.removed);
+        assertSpans(expected);
+    }
+
+    @Test
+    public void typesBetweenSpans() {
+        List<Object> items = items(0, N);
+        view.addSpans(items);
+        callback.clear();
+
+        for (int i = 1; i < N; i += 97) {
+            final Editable text = view.getText();
+            final int where = start(i);
+            text.insert(where, "xy");
+
+            // the typed token lies between the separator and the next span
+            assertEquals(where, tokenizer.findTokenStart(text, where + 2));
+            assertEquals(where + 2, tokenizer.findTokenEnd(text, where));
+            assertNull(view.getSpanItemAt(where));
+            assertEquals(item(i), view.getSpanItemAt(where + 2));
+            assertEquals(item(i - 1), view.getSpanItemAt(where - 2));
+            assertEquals(item(N - 1), view.getSpanItemAt(start(N - 1) + 2));
+
+            text.delete(where, where + 2);
+        }
+
+        assertTrue(callback.added.isEmpty());
+        assertTrue(callback.removed.isEmpty());
+        assertSpans(items);
+    }
+
+    interface Op {
+        /**
+         * Run OPS operations on a view holding count spans, and leave it with
+         * count spans again. Return the time taken by the operations.
+         */
+        long run(int count);
+    }
+
+    /**
+     * Return the ratio of the time per operation with 4N spans to the time with
+     * N spans. The best of several rounds is kept, to leave out the warm up and
+     * the collections.
+     */
+    double scaleRatio(Op op) {
+        final long small = bestTime(N, op);
+        setUp();
+        final long large = bestTime(4 * N, op);
+        return (double) large / small;
+    }
+
+    long bestTime(int count, Op op) {
+        view.addSpans(items(0, count));
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            best = Math.min(best, op.run(count));
+        }
+        return Math.max(best, 1);
+    }
+
+    /**
+     * Each span is inserted with its own edit, with the span watcher attached,
+     * as when the user picks the dropdownItems one by one.
+     */
+    @Test
+    public void appendScales() {
+        final double ratio = scaleRatio(new Op() {
+            @Override
+            public long run(int count) {
+                final long t = System.nanoTime();
+                for (int i = 0; i < OPS; i++) {
+                    addOne(count + i);
+                }
+                final long time = System.nanoTime() - t;
+                for (int i = 0; i < OPS; i++) {
+                    view.removeSpan(item(count + i));
+                }
+                return time;
+            }
+        });
+        assertTrue("append ratio " + ratio, ratio < RATIO);
+        assertOneSpanWatcher();
+    }
+
+    @Test
+    public void removeFirstScales() {
+        final double ratio = scaleRatio(new Op() {
+            @Override
+            public long run(int count) {
+                final List<Object> removed = new ArrayList<Object>(OPS);
+                final long t = System.nanoTime();
+                for (int i = 0; i < OPS; i++) {
+                    final Object first = view.getSelectedItems().get(0);
+                    view.removeSpan(first);
+                    removed.add(first);
+                }
+                final long time = System.nanoTime() - t;
+                view.addSpans(removed);
+                return time;
+            }
+        });
+        assertTrue("remove ratio " + ratio, ratio < RATIO);
+    }
+
+    @Test
+    public void typingScales() {
+        final double ratio = scaleRatio(new Op() {
+            @Override
+            public long run(int count) {
+                final Editable text = view.getText();
+                final int where = start(count / 2);
+                final long t = System.nanoTime();
+                for (int i = 0; i < OPS; i++) {
+                    text.insert(where, "x");
+                    tokenizer.findTokenStart(text, where + 1);
+                    text.delete(where, where + 1);
+                }
+                return System.nanoTime() - t;
+            }
+        });
+        assertTrue("typing ratio " + ratio, ratio < RATIO);
+    }
+}
@@ -35,6 +35,8 @@ import android.graphics.Path;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
+import android.support.v4.util.LruCache;
+import android.text.BoringLayout;
 import android.text.Layout;
 import android.text.StaticLayout;
 import android.text.TextPaint;
@@ -71,7 +73,9 @@ public class TextDrawable extends Drawable {
     /* Paint to hold most drawing primitives for the text */
     private TextPaint mTextPaint;
     /* Layout is used to measure and draw the text */
-    private StaticLayout mTextLayout;
+    private Layout mTextLayout;
+    /* True if mTextLayout is shared through the layout cache */
+    private boolean mSharedLayout;
     /* Alignment of the text inside its bounds */
     private Layout.Alignment mTextAlignment = Layout.Alignment.ALIGN_NORMAL;
     /* Optional path on which to draw the text */
@@ -83,6 +87,13 @@ public class TextDrawable extends Drawable {
     /* Text string to draw */
     private CharSequence mText = "";
 
+    /* Measured layouts of plain String text, shared by all instances */
+    private static final int LAYOUT_CACHE_SIZE = 128;
+    private static final LruCache<LayoutKey, Layout> sLayoutCache =
+            new LruCache<LayoutKey, Layout>(LAYOUT_CACHE_SIZE);
+    /* Reusable lookup key, guarded by sLayoutCache */
+    private static final LayoutKey sLookupKey = new LayoutKey();
+
     /* Attribute lists to pull default values from the current theme */
     private static final int[] themeAttributes = {
             android.R.attr.textAppearance
@@ -287,6 +298,9 @@ public class TextDrawable extends Drawable {
      *
      */
     public void setTypeface(Typeface tf, int style) {
+        final boolean fakeBold = mTextPaint.isFakeBoldText();
+        final float skewX = mTextPaint.getTextSkewX();
+
         if (style > 0) {
             if (tf == null) {
                 tf = Typeface.defaultFromStyle(style);
@@ -305,6 +319,11 @@ public class TextDrawable extends Drawable {
             mTextPaint.setTextSkewX(0);
             setTypeface(tf);
         }
+
+        //Algorithmic styling changes the measurements, and the cache key
+        if (fakeBold != mTextPaint.isFakeBoldText() || skewX != mTextPaint.getTextSkewX()) {
+            measureContent();
+        }
     }
 
     /**
@@ -357,12 +376,11 @@ public class TextDrawable extends Drawable {
         if (mTextPath != null) {
             //Clear any previous measurement
             mTextLayout = null;
+            mSharedLayout = false;
             mTextBounds.setEmpty();
         } else {
             //Measure text bounds
-            double desired = Math.ceil( Layout.getDesiredWidth(mText, mTextPaint) );
-            mTextLayout = new StaticLayout(mText, mTextPaint, (int)desired,
-                    mTextAlignment, 1.0f, 0.0f, false);
+            mTextLayout = obtainLayout();
             mTextBounds.set(0, 0, mTextLayout.getWidth(), mTextLayout.getHeight());
         }
 
@@ -370,6 +388,123 @@ public class TextDrawable extends Drawable {
         invalidateSelf();
     }
 
+    /**
+     * Internal method to get a layout for the current text and paint. Plain
+     * String text is looked up in the shared layout cache first.
+     */
+    private Layout obtainLayout() {
+        if (!(mText instanceof String)) {
+            //Styled text is laid out with our own paint, and never shared
+            mSharedLayout = false;
+            return createLayout(mText, mTextPaint, mTextAlignment);
+        }
+
+        synchronized (sLayoutCache) {
+            sLookupKey.set(mText, mTextPaint, mTextAlignment);
+            Layout layout = sLayoutCache.get(sLookupKey);
+            if (layout != null) {
+                mSharedLayout = true;
+                return layout;
+            }
+        }
+
+        //A layout draws with the paint it was built with, so a shared layout
+        //gets its own copy of the paint
+        TextPaint paint = new TextPaint(mTextPaint);
+        Layout layout = createLayout(mText, paint, mTextAlignment);
+        LayoutKey key = new LayoutKey();
+        key.set(mText, paint, mTextAlignment);
+        synchronized (sLayoutCache) {
+            sLayoutCache.put(key, layout);
+        }
+        mSharedLayout = true;
+        return layout;
+    }
+
+    /**
+     * Internal method to lay out the text, using a BoringLayout for single-line text
+     */
+    private static Layout createLayout(CharSequence text, TextPaint paint,
+                                       Layout.Alignment align) {
+        BoringLayout.Metrics metrics = BoringLayout.isBoring(text, paint);
+        if (metrics != null) {
+            return BoringLayout.make(text, paint, metrics.width, align,
+                    1.0f, 0.0f, metrics, false);
+        }
+
+        double desired = Math.ceil( Layout.getDesiredWidth(text, paint) );
+        return new StaticLayout(text, paint, (int)desired, align, 1.0f, 0.0f, false);
+    }
+
+    /**
+     * Internal method to pick the shared layout matching the paint after a
+     * change which does not affect the measurements (color, alpha, filter)
+     */
+    private void updateSharedLayout() {
+        if (mSharedLayout && mTextLayout != null) {
+            mTextLayout = obtainLayout();
+        }
+    }
+
+    /**
+     * Key of the layout cache: the text, and all paint state a layout depends on,
+     * including the state it draws with.
+     */
+    private static final class LayoutKey {
+        private CharSequence mText;
+        private float mTextSize;
+        private float mTextScaleX;
+        private float mTextSkewX;
+        private Typeface mTypeface;
+        private int mFlags;
+        private int mColor;
+        private ColorFilter mColorFilter;
+        private Layout.Alignment mAlignment;
+
+        void set(CharSequence text, TextPaint paint, Layout.Alignment alignment) {
+            mText = text;
+            mTextSize = paint.getTextSize();
+            mTextScaleX = paint.getTextScaleX();
+            mTextSkewX = paint.getTextSkewX();
+            mTypeface = paint.getTypeface();
+            mFlags = paint.getFlags();
+            mColor = paint.getColor();
+            mColorFilter = paint.getColorFilter();
+            mAlignment = alignment;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LayoutKey)) {
+                return false;
+            }
+            LayoutKey k = (LayoutKey) o;
+            return mTextSize == k.mTextSize
+                    && mTextScaleX == k.mTextScaleX
+                    && mTextSkewX == k.mTextSkewX
+                    && mFlags == k.mFlags
+                    && mColor == k.mColor
+                    && mTypeface == k.mTypeface
+                    && mColorFilter == k.mColorFilter
+                    && mAlignment == k.mAlignment
+                    && mText.equals(k.mText);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = mText.hashCode();
+            h = 31 * h + Float.floatToIntBits(mTextSize);
+            h = 31 * h + Float.floatToIntBits(mTextScaleX);
+            h = 31 * h + Float.floatToIntBits(mTextSkewX);
+            h = 31 * h + (mTypeface != null ? mTypeface.hashCode() : 0);
+            h = 31 * h + mFlags;
+            h = 31 * h + mColor;
+            h = 31 * h + (mColorFilter != null ? mColorFilter.hashCode() : 0);
+            h = 31 * h + (mAlignment != null ? mAlignment.hashCode() : 0);
+            return h;
+        }
+    }
+
     /**
      * Internal method to apply the correct text color based on the drawable's state
      */
@@ -377,6 +512,7 @@ public class TextDrawable extends Drawable {
         int newColor = mTextColors.getColorForState(stateSet, Color.WHITE);
         if (mTextPaint.getColor() != newColor) {
             mTextPaint.setColor(newColor);
+            updateSharedLayout();
             return  true;
         }
 
@@ -443,6 +579,7 @@ public class TextDrawable extends Drawable {
     public void setAlpha(int alpha) {
         if (mTextPaint.getAlpha() != alpha) {
             mTextPaint.setAlpha(alpha);
+            updateSharedLayout();
         }
     }
 
@@ -455,6 +592,7 @@ public class TextDrawable extends Drawable {
     public void setColorFilter(ColorFilter cf) {
         if (mTextPaint.getColorFilter() != cf) {
             mTextPaint.setColorFilter(cf);
+            updateSharedLayout();
         }
     }
 
@@ -25,14 +25,15 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.MultiAutoCompleteTextView;
 import android.widget.TextView;
 import android.support.v7.app.ActionBarActivity;
 
+import zemin.autocomplete.widget.ChipStyle;
+import zemin.autocomplete.widget.PrefixIndex;
 import zemin.autocomplete.widget.SpannedAutoCompleteView;
-import zemin.autocomplete.widget.SpannedAutoCompleteView.SpanLayer;
+import zemin.autocomplete.widget.SuggestionAdapter;
 import com.example.textdrawable.drawable.TextDrawable;
 
 import java.util.ArrayList;
@@ -44,8 +45,6 @@ public class MainActivity extends ActionBarActivity {
     private static final boolean DBG = true;
 
     private SpannedAutoCompleteView mSpannedView;
-    private SpanLayer mIconLayer;
-    private SpanLayer mTextLayer;
 
     private final String[] STRINGS = {
         "hahahaha",
@@ -69,42 +68,36 @@ public class MainActivity extends ActionBarActivity {
             list.add(new DropDownItem(R.drawable.android_gray, STRINGS[i]));
         }
 
-        SearchAdapter adapter = new SearchAdapter(this, list);
+        SearchAdapter adapter = new SearchAdapter(this, new PrefixIndex<DropDownItem>(list));
 
         mSpannedView = (SpannedAutoCompleteView) findViewById(R.id.sacv);
         mSpannedView.setAdapter(adapter);
         mSpannedView.setAutoRemove(true);
 
-        // background layer
-        mSpannedView.setSpanBackground(R.drawable.span_background);
+        ChipStyle style = new ChipStyle.Builder()
+            // background layer
+            .setBackground(getResources().getDrawable(R.drawable.span_background))
+            // close view layer
+            .addLayer(getResources().getDrawable(R.drawable.close_button),
+                      ChipStyle.RIGHT, 10, 10, 10, 10)
+            // icon view layer
+            .addVariableLayer(ChipStyle.LEFT, 10, 10, 10, 10)
+            // text view layer
+            .addVariableLayer(ChipStyle.CENTER, 0, 0, 0, 0)
+            .build();
 
-        // close view layer
-        mSpannedView.createSpanLayer()
-            .setDrawable(R.drawable.close_button)
-            .setGravity(SpanLayer.RIGHT)
-            .setMargin(10, 10, 10, 10);
-
-        // icon view layer
-        mIconLayer = mSpannedView.createSpanLayer()
-            .setGravity(SpanLayer.LEFT)
-            .setMargin(10, 10, 10, 10);
-
-        // text view layer
-        mTextLayer = mSpannedView.createSpanLayer()
-            .setGravity(SpanLayer.CENTER);
-
-        mSpannedView.setCallback(new SpannedAutoCompleteView.SimpleCallback() {
+        mSpannedView.setChipStyle(style, new ChipStyle.ChipBinder() {
 
                 @Override
-                public void onSpanCreate(SpannedAutoCompleteView view, Object dropdownItem) {
+                public void bind(Object dropdownItem, Drawable[] drawables) {
                     DropDownItem item = (DropDownItem) dropdownItem;
 
                     TextDrawable td = new TextDrawable(MainActivity.this);
                     td.setText(item.text);
                     td.setTextSize(15);
 
-                    mIconLayer.setDrawable(item.icon);
-                    mTextLayer.setDrawable(td);
+                    drawables[0] = item.icon.getConstantState().newDrawable();
+                    drawables[1] = td;
                 }
             });
     }
@@ -127,10 +120,10 @@ public class MainActivity extends ActionBarActivity {
         }
     }
 
-    public class SearchAdapter extends ArrayAdapter<DropDownItem> {
+    public class SearchAdapter extends SuggestionAdapter<DropDownItem> {
 
-        public SearchAdapter(Context context, ArrayList<DropDownItem> results) {
-            super(context, 0, results);
+        public SearchAdapter(Context context, PrefixIndex<DropDownItem> index) {
+            super(context, index);
         }
 
         @Override
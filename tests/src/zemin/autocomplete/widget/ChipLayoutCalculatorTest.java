@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChipLayoutCalculatorTest {
+
+    @Test
+    public void singleLayer() {
+        ChipLayoutCalculator calculator = new ChipLayoutCalculator();
+        calculator.begin().setLayer(ChipLayoutCalculator.LEFT, 100, 40, 2, 3, 4, 5);
+        assertTrue(calculator.end());
+
+        assertEquals(1, calculator.getLayerCount());
+        assertEquals(106, calculator.getWidth());
+        assertEquals(48, calculator.getHeight());
+        assertInsets(calculator, 0, 2, 4, 4, 4);
+    }
+
+    @Test
+    public void iconBesideLabel() {
+        ChipLayoutCalculator calculator = new ChipLayoutCalculator();
+        calculator.begin()
+            .setLayer(ChipLayoutCalculator.CENTER, 100, 40, 0, 0, 0, 0)
+            .setLayer(ChipLayoutCalculator.LEFT, 20, 20, 4, 0, 0, 0)
+            .setLayer(ChipLayoutCalculator.RIGHT, 16, 16, 0, 0, 6, 0);
+        assertTrue(calculator.end());
+
+        assertEquals(24 + 100 + 22, calculator.getWidth());
+        assertEquals(40, calculator.getHeight());
+        // the label sits between the icons
+        assertInsets(calculator, 0, 24, 0, 22, 0);
+        assertInsets(calculator, 1, 4, 10, 146 - 4 - 20, 10);
+        assertInsets(calculator, 2, 146 - 6 - 16, 12, 6, 12);
+    }
+
+    @Test
+    public void backgroundAroundStack() {
+        ChipLayoutCalculator calculator = new ChipLayoutCalculator();
+        calculator.begin()
+            .setLayer(ChipLayoutCalculator.TOP, 30, 10, 0, 2, 0, 0)
+            .setLayer(ChipLayoutCalculator.BOTTOM, 50, 10, 0, 0, 0, 3)
+            .setLayer(ChipLayoutCalculator.CENTER, 40, 20, 0, 0, 0, 0);
+        assertTrue(calculator.end());
+
+        assertEquals(50, calculator.getWidth());
+        assertEquals(12 + 13 + 20, calculator.getHeight());
+        assertInsets(calculator, 0, 10, 2, 10, 45 - 2 - 10);
+        assertInsets(calculator, 1, 0, 45 - 3 - 10, 0, 3);
+        assertInsets(calculator, 2, 5, 12, 5, 13);
+    }
+
+    @Test
+    public void recomputesOnlyOnChange() {
+        ChipLayoutCalculator calculator = new ChipLayoutCalculator(1);
+        for (int round = 0; round < 3; round++) {
+            calculator.begin()
+                .setLayer(ChipLayoutCalculator.CENTER, 100, 40, 0, 0, 0, 0)
+                .setLayer(ChipLayoutCalculator.LEFT, 20, 20, 0, 0, 0, 0);
+            assertEquals(round == 0, calculator.end());
+        }
+        assertEquals(1, calculator.getComputeCount());
+
+        // another width
+        calculator.begin()
+            .setLayer(ChipLayoutCalculator.CENTER, 90, 40, 0, 0, 0, 0)
+            .setLayer(ChipLayoutCalculator.LEFT, 20, 20, 0, 0, 0, 0);
+        assertTrue(calculator.end());
+        assertEquals(110, calculator.getWidth());
+
+        // one layer less
+        calculator.begin().setLayer(ChipLayoutCalculator.CENTER, 90, 40, 0, 0, 0, 0);
+        assertTrue(calculator.end());
+        assertEquals(90, calculator.getWidth());
+
+        calculator.invalidate();
+        calculator.begin().setLayer(ChipLayoutCalculator.CENTER, 90, 40, 0, 0, 0, 0);
+        assertTrue(calculator.end());
+        assertEquals(4, calculator.getComputeCount());
+
+        calculator.begin().setLayer(ChipLayoutCalculator.CENTER, 90, 40, 0, 0, 0, 0);
+        assertFalse(calculator.end());
+    }
+
+    @Test
+    public void manyLayers() {
+        final int count = 1000;
+        ChipLayoutCalculator calculator = new ChipLayoutCalculator();
+        calculator.begin();
+        for (int i = 0; i < count; i++) {
+            calculator.setLayer(ChipLayoutCalculator.CENTER, i, 2 * i, 0, 0, 0, 0);
+        }
+        assertTrue(calculator.end());
+
+        assertEquals(count, calculator.getLayerCount());
+        assertEquals(count - 1, calculator.getWidth());
+        assertEquals(2 * (count - 1), calculator.getHeight());
+        // centered layers fill the center
+        for (int i = 0; i < count; i++) {
+            assertInsets(calculator, i, 0, 0, 0, 0);
+        }
+    }
+
+    private static void assertInsets(ChipLayoutCalculator calculator, int layer,
+                                     int left, int top, int right, int bottom) {
+        assertEquals(left, calculator.getLeftInset(layer));
+        assertEquals(top, calculator.getTopInset(layer));
+        assertEquals(right, calculator.getRightInset(layer));
+        assertEquals(bottom, calculator.getBottomInset(layer));
+    }
+}
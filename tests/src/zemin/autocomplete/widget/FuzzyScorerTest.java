@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FuzzyScorerTest {
+
+    private final FuzzyScorer mScorer = new FuzzyScorer();
+
+    @Test
+    public void subsequences() {
+        assertTrue(mScorer.score("John Smith", "jsmi") >= 0);
+        assertTrue(mScorer.score("John Smith", "JOHN") >= 0);
+        assertEquals(-1, mScorer.score("John Smith", "jx"));
+        assertEquals(-1, mScorer.score("John Smith", "smj"));
+        assertEquals(-1, mScorer.score("Jo", "john"));
+        assertEquals(0, mScorer.score("John Smith", ""));
+    }
+
+    @Test
+    public void prefersBoundariesAndRuns() {
+        // word boundaries beat scattered letters
+        assertTrue(mScorer.score("John Smith", "js") > mScorer.score("Jessica", "js"));
+        // camel case counts as a boundary
+        assertTrue(mScorer.score("getItemKey", "gik") > mScorer.score("gravitykit", "gik"));
+        // consecutive letters beat gaps
+        assertTrue(mScorer.score("smith", "smi") > mScorer.score("sxmxi", "smi"));
+        // the first letter counts most
+        assertTrue(mScorer.score("anna", "a") > mScorer.score("banana", "a"));
+        // shorter candidates win ties
+        assertTrue(mScorer.score("Ann", "ann") > mScorer.score("Annabelle Lee", "ann"));
+    }
+
+    @Test
+    public void matchRanges() {
+        final int[] ranges = new int[8];
+        assertEquals(2, mScorer.getMatchRanges("John Smith", "josm", ranges));
+        assertArrayEquals(new int[] { 0, 2, 5, 7 }, slice(ranges, 4));
+
+        assertEquals(-1, mScorer.getMatchRanges("John Smith", "jz", ranges));
+    }
+
+    @Test
+    public void jumpsToLaterBoundary() {
+        // "s" of "Smith" rather than the "s" of "Ross"
+        final int[] ranges = new int[6];
+        assertEquals(2, mScorer.getMatchRanges("Ross Smith", "rsm", ranges));
+        assertArrayEquals(new int[] { 0, 1, 5, 7 }, slice(ranges, 4));
+    }
+
+    private static int[] slice(int[] array, int length) {
+        final int[] slice = new int[length];
+        System.arraycopy(array, 0, slice, 0, length);
+        return slice;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FuzzySuggestionSourceTest {
+
+    private static final String[] NAMES = {
+        "John", "Jane", "James", "Smith", "Johnson", "Jones", "Miller", "Sam", "Jessica",
+    };
+
+    @Test
+    public void ranksBestFirst() {
+        FuzzySuggestionSource<String> source = new FuzzySuggestionSource<String>(
+            Arrays.asList("Jessica Miller", "John Smith", "Jane Jones"));
+
+        List<String> results = source.query("jsmi", 10);
+        assertEquals("John Smith", results.get(0));
+
+        results = source.query("jm", 10);
+        assertEquals("Jessica Miller", results.get(0));
+        assertTrue(source.matches("Jane Jones", "jj"));
+    }
+
+    @Test
+    public void limits() {
+        FuzzySuggestionSource<String> source = new FuzzySuggestionSource<String>(
+            Arrays.asList("a", "ab", "abc"));
+
+        assertEquals(1, source.query("a", 1).size());
+        assertEquals(3, source.query("a", 1000).size());
+        assertTrue(source.query("a", 0).isEmpty());
+        assertTrue(source.query(null, 10).isEmpty());
+        assertTrue(new FuzzySuggestionSource<String>(new ArrayList<String>())
+                   .query("a", 10).isEmpty());
+    }
+
+    @Test
+    public void isRanked() {
+        assertTrue(new FuzzySuggestionSource<String>(Arrays.asList("a"))
+                   instanceof SuggestionSource.Ranked);
+    }
+
+    @Test
+    public void lookup() {
+        FuzzySuggestionSource<String> source = new FuzzySuggestionSource<String>(
+            Arrays.asList("John Smith", "john smith", "Jane"));
+
+        assertEquals("John Smith", source.lookup("JOHN SMITH"));
+        assertEquals("Jane", source.lookup("jane"));
+        assertNull(source.lookup("jan"));
+    }
+
+    @Test
+    public void cancels() {
+        final List<String> items = new ArrayList<String>();
+        for (int i = 0; i < 100000; i++) {
+            items.add("item" + i);
+        }
+        FuzzySuggestionSource<String> source = new FuzzySuggestionSource<String>(items);
+
+        // cancelled after a few checks, i.e. a few thousand items into the scan
+        final int[] checks = new int[1];
+        final List<String> results = source.query("item", 10, new SuggestionSource.Cancellation() {
+            @Override
+            public boolean isCancelled() {
+                return ++checks[0] > 3;
+            }
+        });
+        assertNull(results);
+        assertEquals(4, checks[0]);
+
+        assertEquals(10, source.query("item", 10, new SuggestionSource.Cancellation() {
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        }).size());
+    }
+
+    @Test
+    public void matchesFullRankingAtScale() {
+        final Random random = new Random(1);
+        final int n = 100000;
+        final List<String> items = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) {
+            items.add(NAMES[random.nextInt(NAMES.length)] + " " +
+                      NAMES[random.nextInt(NAMES.length)] + i);
+        }
+        final FuzzyScorer scorer = new FuzzyScorer();
+        final FuzzySuggestionSource<String> source =
+            new FuzzySuggestionSource<String>(items, null, scorer);
+
+        for (String query : new String[] { "js", "jmi", "sam", "jessi", "xq" }) {
+            final List<String> results = source.query(query, 50);
+
+            // every item scoring better than the last result is in the results
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (scorer.score(items.get(i), query) >= 0) {
+                    kept++;
+                }
+            }
+            assertEquals(Math.min(kept, 50), results.size());
+            for (int i = 1; i < results.size(); i++) {
+                assertTrue(scorer.score(results.get(i - 1), query) >=
+                           scorer.score(results.get(i), query));
+            }
+            if (!results.isEmpty()) {
+                final int worst = scorer.score(results.get(results.size() - 1), query);
+                int better = 0;
+                for (int i = 0; i < n; i++) {
+                    if (scorer.score(items.get(i), query) > worst) {
+                        better++;
+                    }
+                }
+                assertTrue(better < results.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ObjectPoolTest {
+
+    private static final int POOL_SIZE = 32;
+
+    private static ObjectPool<Object> newPool() {
+        return new ObjectPool<Object>(POOL_SIZE) {
+            @Override
+            protected Object create() {
+                return new Object();
+            }
+        };
+    }
+
+    @Test
+    public void reusesReleased() {
+        ObjectPool<Object> pool = newPool();
+        Object first = pool.acquire();
+        assertTrue(pool.release(first));
+        assertEquals(1, pool.size());
+        assertSame(first, pool.acquire());
+        assertEquals(0, pool.size());
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releaseTwice() {
+        ObjectPool<Object> pool = newPool();
+        Object object = pool.acquire();
+        pool.release(object);
+        pool.release(object);
+    }
+
+    @Test
+    public void allocationsBoundedByPoolSize() {
+        // objects acquired and released in any order, at most POOL_SIZE at a time
+        ObjectPool<Object> pool = newPool();
+        List<Object> objects = new ArrayList<Object>();
+        Random random = new Random(3);
+        for (int op = 0; op < 200000; op++) {
+            if (objects.size() < POOL_SIZE && (objects.isEmpty() || random.nextBoolean())) {
+                objects.add(pool.acquire());
+            } else {
+                assertTrue(pool.release(objects.remove(random.nextInt(objects.size()))));
+            }
+        }
+        assertTrue(pool.getCreatedCount() <= POOL_SIZE);
+    }
+
+    @Test
+    public void dropsBeyondPoolSize() {
+        final int count = 100;
+        ObjectPool<Object> pool = newPool();
+        for (int round = 0; round < 10; round++) {
+            List<Object> objects = new ArrayList<Object>();
+            for (int i = 0; i < count; i++) {
+                objects.add(pool.acquire());
+            }
+            int kept = 0;
+            for (Object object : objects) {
+                if (pool.release(object)) {
+                    kept++;
+                }
+            }
+            assertEquals(POOL_SIZE, kept);
+            assertEquals(POOL_SIZE, pool.size());
+        }
+        // only the objects beyond the pool size are allocated again
+        assertEquals(count + 9 * (count - POOL_SIZE), pool.getCreatedCount());
+        assertFalse(pool.release(new Object()));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PrefixIndexTest {
+
+    @Test
+    public void caseInsensitive() {
+        PrefixIndex<String> index = new PrefixIndex<String>(
+            Arrays.asList("Bob", "alice", "ALBERT", "carol"));
+
+        assertEquals(Arrays.asList("ALBERT", "alice"), index.query("AL", 10));
+        assertEquals(Arrays.asList("ALBERT"), index.query("al", 1));
+        assertTrue(index.query("x", 10).isEmpty());
+        assertTrue(index.matches("Bob", "bO"));
+    }
+
+    @Test
+    public void keyFunction() {
+        PrefixIndex<String> index = new PrefixIndex<String>(
+            Arrays.asList("Alice <a@example.com>", "Bob <b@example.com>"),
+            new SuggestionSource.KeyFunction<String>() {
+                @Override
+                public String getKey(String item) {
+                    return item.substring(item.indexOf('<') + 1);
+                }
+            });
+
+        assertEquals(Arrays.asList("Bob <b@example.com>"), index.query("b@", 10));
+        assertEquals("Alice <a@example.com>", index.lookup("A@EXAMPLE.COM>"));
+    }
+
+    @Test
+    public void lookup() {
+        PrefixIndex<String> index = new PrefixIndex<String>(
+            Arrays.asList("Bob", "alice", "Alice Smith"));
+
+        assertEquals("alice", index.lookup("ALICE"));
+        assertEquals("Alice Smith", index.lookup("alice smith"));
+        assertNull(index.lookup("ali"));
+        assertNull(index.lookup("zed"));
+    }
+
+    @Test
+    public void matchesLinearScanAtScale() {
+        final Random random = new Random(1);
+        final int n = 200000;
+        final List<String> items = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) {
+            items.add(randomWord(random));
+        }
+        final PrefixIndex<String> index = new PrefixIndex<String>(items);
+        assertEquals(n, index.size());
+
+        final List<String> sorted = new ArrayList<String>(items);
+        for (int i = 0; i < n; i++) {
+            sorted.set(i, sorted.get(i).toLowerCase(Locale.ROOT));
+        }
+        Collections.sort(sorted);
+
+        for (int q = 0; q < 200; q++) {
+            final String prefix = randomWord(random).substring(0, 1 + random.nextInt(3));
+            final int limit = 1 + random.nextInt(100);
+            final List<String> expected = new ArrayList<String>();
+            final String p = prefix.toLowerCase(Locale.ROOT);
+            for (int i = 0; i < n && expected.size() < limit; i++) {
+                if (sorted.get(i).startsWith(p)) {
+                    expected.add(sorted.get(i));
+                }
+            }
+
+            final List<String> results = index.query(prefix, limit);
+            assertEquals(expected.size(), results.size());
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(expected.get(i), results.get(i).toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    private static String randomWord(Random random) {
+        final int length = 3 + random.nextInt(8);
+        final StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            final char c = (char) ('a' + random.nextInt(6));
+            word.append(random.nextInt(4) == 0 ? Character.toUpperCase(c) : c);
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SequenceDiffTest {
+
+    @Test
+    public void identical() {
+        Object[] a = { "a", "b", "c" };
+        assertArrayEquals(new int[] { 0, 1, 2 }, SequenceDiff.diff(a, a.clone()));
+    }
+
+    @Test
+    public void empty() {
+        assertArrayEquals(new int[0], SequenceDiff.diff(new Object[0], new Object[] { "a" }));
+        assertArrayEquals(new int[] { -1, -1 },
+                          SequenceDiff.diff(new Object[] { "a", "b" }, new Object[0]));
+    }
+
+    @Test
+    public void insertionsAndDeletions() {
+        Object[] a = { "a", "b", "c", "d" };
+        Object[] b = { "b", "x", "d", "e" };
+        assertArrayEquals(new int[] { -1, 0, -1, 2 }, SequenceDiff.diff(a, b));
+    }
+
+    @Test
+    public void nulls() {
+        Object[] a = { null, "a" };
+        Object[] b = { "a", null };
+        int[] matches = SequenceDiff.diff(a, b);
+        assertValid(a, b, matches);
+        assertEquals(1, matched(matches));
+    }
+
+    @Test
+    public void findsLongestCommonSubsequence() {
+        final Random random = new Random(1);
+        for (int round = 0; round < 5000; round++) {
+            final Object[] a = randomSequence(random, random.nextInt(30), 4);
+            final Object[] b = randomSequence(random, random.nextInt(30), 4);
+            final int[] matches = SequenceDiff.diff(a, b);
+            assertValid(a, b, matches);
+            assertEquals(lcsLength(a, b), matched(matches));
+        }
+    }
+
+    @Test
+    public void reversed() {
+        final int n = 2000;
+        final Object[] a = new Object[n];
+        final Object[] b = new Object[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i;
+            b[n - 1 - i] = i;
+        }
+        final int[] matches = SequenceDiff.diff(a, b);
+        assertValid(a, b, matches);
+        assertEquals(1, matched(matches));
+    }
+
+    @Test
+    public void scale() {
+        final int n = 200000;
+        final Random random = new Random(2);
+        final List<Object> edited = new ArrayList<Object>(n);
+        final Object[] a = new Object[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i;
+            edited.add(i);
+        }
+        int deleted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (random.nextBoolean()) {
+                edited.add(random.nextInt(edited.size() + 1), "new" + i);
+            } else {
+                edited.remove(random.nextInt(edited.size()));
+                deleted++;
+            }
+        }
+
+        final Object[] b = edited.toArray();
+        final int[] matches = SequenceDiff.diff(a, b);
+        assertValid(a, b, matches);
+        // every element which is still there keeps its place
+        assertEquals(n - deleted, matched(matches));
+    }
+
+    private static Object[] randomSequence(Random random, int length, int alphabet) {
+        final Object[] sequence = new Object[length];
+        for (int i = 0; i < length; i++) {
+            sequence[i] = random.nextInt(alphabet);
+        }
+        return sequence;
+    }
+
+    private static void assertValid(Object[] a, Object[] b, int[] matches) {
+        assertEquals(a.length, matches.length);
+        int previous = -1;
+        for (int i = 0; i < a.length; i++) {
+            if (matches[i] < 0) {
+                continue;
+            }
+            assertTrue(matches[i] > previous);
+            assertTrue(matches[i] < b.length);
+            assertEquals(a[i], b[matches[i]]);
+            previous = matches[i];
+        }
+    }
+
+    private static int matched(int[] matches) {
+        int count = 0;
+        for (int match : matches) {
+            if (match >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int lcsLength(Object[] a, Object[] b) {
+        final int[][] lcs = new int[a.length + 1][b.length + 1];
+        for (int i = a.length - 1; i >= 0; i--) {
+            for (int j = b.length - 1; j >= 0; j--) {
+                lcs[i][j] = a[i].equals(b[j]) ? lcs[i + 1][j + 1] + 1 :
+                    Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+        return lcs[0][0];
+    }
+}
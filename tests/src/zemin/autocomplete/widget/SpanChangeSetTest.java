@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpanChangeSetTest {
+
+    private final List<Object> mAdded = new ArrayList<Object>();
+    private final List<Object> mRemoved = new ArrayList<Object>();
+    private final List<Object> mMoved = new ArrayList<Object>();
+
+    @Test
+    public void coalesces() {
+        SpanChangeSet changes = new SpanChangeSet();
+        changes.onAdded("a", "A");
+        changes.onRemoved("a", "A");
+        changes.onRemoved("b", "B");
+        changes.onAdded("b", "B2");
+        changes.onAdded("c", "C");
+        changes.onAdded("c", "C");
+        changes.onRemoved("d", "D");
+
+        changes.drain(mAdded, mRemoved, mMoved);
+        assertEquals(Arrays.<Object>asList("C", "C"), mAdded);
+        assertEquals(Arrays.<Object>asList("D"), mRemoved);
+        assertEquals(Arrays.<Object>asList("B2"), mMoved);
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void scale() {
+        final int count = 100000;
+        SpanChangeSet changes = new SpanChangeSet();
+        for (int i = 0; i < count; i++) {
+            changes.onAdded(i, i);
+            if (i % 2 == 0) {
+                changes.onRemoved(i, i);
+            }
+        }
+
+        changes.drain(mAdded, mRemoved, mMoved);
+        assertEquals(count / 2, mAdded.size());
+        assertEquals(1, mAdded.get(0));
+        assertTrue(mRemoved.isEmpty());
+        assertTrue(mMoved.isEmpty());
+    }
+}
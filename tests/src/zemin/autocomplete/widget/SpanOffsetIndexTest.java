@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpanOffsetIndexTest {
+
+    /**
+     * A plain list of ranges, changed one by one, the index is checked against.
+     */
+    private static final class Model {
+        final List<int[]> ranges = new ArrayList<int[]>();
+
+        // {item, start, end}
+        void add(int item, int start, int end) {
+            ranges.add(new int[] { item, start, end });
+        }
+
+        void onTextChanged(int start, int before, int count) {
+            final int delta = count - before;
+            final int oldEnd = start + before;
+            for (int i = ranges.size() - 1; i >= 0; i--) {
+                final int[] r = ranges.get(i);
+                if (r[1] < start && r[2] <= start) {
+                    // before the change
+                } else if (r[1] >= oldEnd) {
+                    r[1] += delta;
+                    r[2] += delta;
+                } else if (r[1] >= start && r[2] <= oldEnd) {
+                    ranges.remove(i);
+                } else {
+                    if (r[1] > start) {
+                        r[1] = start + count;
+                    }
+                    r[2] = r[2] >= oldEnd ? r[2] + delta : start;
+                    r[2] = Math.max(r[1], r[2]);
+                }
+            }
+        }
+
+        int countStartingBefore(int offset) {
+            int count = 0;
+            for (int[] r : ranges) {
+                if (r[1] < offset) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    @Test
+    public void lookups() {
+        SpanOffsetIndex<String> index = new SpanOffsetIndex<String>();
+        index.add("b", 10, 15);
+        index.add("a", 0, 5);
+        index.add("c", 20, 25);
+
+        assertEquals(3, index.size());
+        assertEquals("a", index.get(0));
+        assertEquals("b", index.get(1));
+        assertEquals("c", index.get(2));
+        assertEquals(10, index.getStart("b"));
+        assertEquals(15, index.getEnd("b"));
+        assertEquals(-1, index.getStart("d"));
+
+        assertEquals(-1, index.floor(0));
+        assertEquals(0, index.floor(1));
+        assertEquals(0, index.floor(10));
+        assertEquals(1, index.floor(11));
+        assertEquals(1, index.ceiling(10));
+        assertEquals(2, index.ceiling(11));
+        assertEquals(3, index.ceiling(21));
+    }
+
+    @Test
+    public void addUpdatesRange() {
+        SpanOffsetIndex<String> index = new SpanOffsetIndex<String>();
+        index.add("a", 0, 5);
+        index.add("b", 10, 15);
+        index.add("a", 20, 25);
+
+        assertEquals(2, index.size());
+        assertEquals("b", index.get(0));
+        assertEquals("a", index.get(1));
+        assertEquals(20, index.getStart("a"));
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertFalse(index.contains("a"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void textChanges() {
+        SpanOffsetIndex<String> index = new SpanOffsetIndex<String>();
+        index.add("a", 0, 5);
+        index.add("b", 6, 11);
+        index.add("c", 12, 17);
+
+        // typed in front of everything
+        index.onTextChanged(0, 0, 3);
+        assertEquals(3, index.getStart("a"));
+        assertEquals(20, index.getEnd("c"));
+
+        // typed right after "a": "a" is untouched
+        index.onTextChanged(8, 0, 1);
+        assertEquals(8, index.getEnd("a"));
+        assertEquals(10, index.getStart("b"));
+
+        // "b" deleted along with its separator
+        index.onTextChanged(10, 6, 0);
+        assertFalse(index.contains("b"));
+        assertEquals(10, index.getStart("c"));
+        assertEquals(15, index.getEnd("c"));
+
+        // the tail of "a" replaced: the range grows with it
+        index.onTextChanged(6, 2, 4);
+        assertEquals(3, index.getStart("a"));
+        assertEquals(10, index.getEnd("a"));
+        assertEquals(12, index.getStart("c"));
+
+        // the whole text replaced
+        index.onTextChanged(0, 17, 0);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void matchesModelUnderRandomChanges() {
+        final Random random = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            final SpanOffsetIndex<Integer> index = new SpanOffsetIndex<Integer>();
+            final Model model = new Model();
+
+            int offset = 0;
+            final int chips = 1 + random.nextInt(50);
+            for (int i = 0; i < chips; i++) {
+                offset += random.nextInt(3);
+                final int length = 1 + random.nextInt(6);
+                index.add(i, offset, offset + length);
+                model.add(i, offset, offset + length);
+                offset += length;
+            }
+            int length = offset + random.nextInt(5);
+
+            for (int op = 0; op < 100; op++) {
+                final int start = random.nextInt(length + 1);
+                final int before = random.nextInt(4) == 0 ?
+                    random.nextInt(Math.min(10, length - start) + 1) : 0;
+                final int count = random.nextInt(3) == 0 ? 0 : random.nextInt(4);
+                index.onTextChanged(start, before, count);
+                model.onTextChanged(start, before, count);
+                length += count - before;
+
+                if (random.nextInt(10) == 0 && !model.ranges.isEmpty()) {
+                    // a chip set again, at the end
+                    final int[] r = model.ranges.remove(random.nextInt(model.ranges.size()));
+                    r[1] = length;
+                    r[2] = length + 2;
+                    model.ranges.add(r);
+                    index.add(r[0], r[1], r[2]);
+                    length += 2;
+                }
+                assertMatches(model, index, length);
+            }
+        }
+    }
+
+    @Test
+    public void scale() {
+        final int chips = 100000;
+        final SpanOffsetIndex<Integer> index = new SpanOffsetIndex<Integer>();
+        for (int i = 0; i < chips; i++) {
+            index.add(i, i * 10, i * 10 + 9);
+        }
+
+        // shifts[i] characters typed between chips i - 1 and i
+        final int[] shifts = new int[chips];
+        final Random random = new Random(2);
+        for (int op = 0; op < 1000; op++) {
+            // a character typed right after a chip, and maybe deleted again
+            final int chip = random.nextInt(chips);
+            final int offset = index.getEnd(chip);
+            index.onTextChanged(offset, 0, 1);
+            if (random.nextBoolean()) {
+                index.onTextChanged(offset, 1, 0);
+            } else if (chip + 1 < chips) {
+                shifts[chip + 1]++;
+            }
+        }
+
+        assertEquals(chips, index.size());
+        int shift = 0;
+        for (int i = 0; i < chips; i++) {
+            shift += shifts[i];
+            assertEquals(i, (int) index.get(i));
+            assertEquals(i * 10 + shift, index.getStart(i));
+            assertEquals(i * 10 + 9 + shift, index.getEnd(i));
+            assertEquals(i, index.floor(index.getStart(i) + 1));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void typingInFront() {
+        final int chips = 100000;
+        final int edits = 100000;
+        final SpanOffsetIndex<Integer> index = new SpanOffsetIndex<Integer>();
+        for (int i = 0; i < chips; i++) {
+            index.add(i, i * 10, i * 10 + 9);
+        }
+
+        // typed in front of all the chips, then at the end of the first one,
+        // then in front again; each is a deferred shift of the chips after it
+        for (int op = 0; op < edits; op++) {
+            index.onTextChanged(0, 0, 2);
+            index.onTextChanged(index.getEnd(0), 0, 1);
+            index.onTextChanged(0, 1, 0);
+            assertEquals(op + 1, index.getStart(0));
+        }
+        index.add(chips, index.getEnd(chips - 1) + 1, index.getEnd(chips - 1) + 3);
+
+        assertEquals(chips + 1, index.size());
+        for (int i = 0; i < chips; i++) {
+            final int shift = i == 0 ? edits : 2 * edits;
+            assertEquals(i * 10 + shift, index.getStart(i));
+            assertEquals(i * 10 + 9 + shift, index.getEnd(i));
+            assertEquals(i, index.floor(index.getStart(i) + 1));
+        }
+        assertEquals(chips, index.floor(index.getEnd(chips) + 1));
+    }
+
+    private static void assertMatches(Model model, SpanOffsetIndex<Integer> index, int length) {
+        assertEquals(model.ranges.size(), index.size());
+        for (int[] r : model.ranges) {
+            // boxed, getStart(int) is the position overload
+            final Integer item = r[0];
+            assertEquals(r[1], index.getStart(item));
+            assertEquals(r[2], index.getEnd(item));
+        }
+        for (int i = 1; i < index.size(); i++) {
+            assertTrue(index.getStart(i - 1) <= index.getStart(i));
+            assertEquals(index.getStart(index.get(i)), index.getStart(i));
+            assertEquals(index.getEnd(index.get(i)), index.getEnd(i));
+        }
+        for (int offset = 0; offset <= length + 1; offset++) {
+            final int before = model.countStartingBefore(offset);
+            assertEquals(before, index.ceiling(offset));
+            assertEquals(before - 1, index.floor(offset));
+        }
+    }
+}
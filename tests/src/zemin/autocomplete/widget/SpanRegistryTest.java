@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SpanRegistryTest {
+
+    static final class Span extends SpanRegistry.Entry {
+        final int id;
+
+        Span(int id) {
+            this.id = id;
+        }
+    }
+
+    @Test
+    public void keepsInsertionOrder() {
+        SpanRegistry<Span> registry = new SpanRegistry<Span>();
+        Span a = new Span(0);
+        Span b = new Span(1);
+        Span c = new Span(2);
+        registry.add(a, "a");
+        registry.add(c, "c");
+        registry.insertBefore(b, "b", c);
+
+        assertEquals(3, registry.size());
+        assertSame(a, registry.first());
+        assertSame(b, registry.next(a));
+        assertSame(c, registry.next(b));
+        assertSame(c, registry.last());
+        assertSame(b, registry.previous(c));
+        assertNull(registry.next(c));
+    }
+
+    @Test
+    public void getReturnsOldestDuplicate() {
+        SpanRegistry<Span> registry = new SpanRegistry<Span>();
+        Span a1 = new Span(0);
+        Span a2 = new Span(1);
+        registry.add(a1, "a");
+        registry.add(a2, "a");
+
+        assertSame(a1, registry.get("a"));
+        assertTrue(registry.remove(a1));
+        assertSame(a2, registry.get("a"));
+        assertTrue(registry.remove(a2));
+        assertFalse(registry.contains("a"));
+        assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    public void removeUnregistered() {
+        SpanRegistry<Span> registry = new SpanRegistry<Span>();
+        Span a = new Span(0);
+        assertFalse(registry.remove(a));
+        registry.add(a, "a");
+        assertTrue(a.isRegistered());
+        assertTrue(registry.remove(a));
+        assertFalse(a.isRegistered());
+        assertFalse(registry.remove(a));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addTwice() {
+        SpanRegistry<Span> registry = new SpanRegistry<Span>();
+        Span a = new Span(0);
+        registry.add(a, "a");
+        registry.add(a, "a");
+    }
+
+    @Test
+    public void clearUnregistersAll() {
+        SpanRegistry<Span> registry = new SpanRegistry<Span>();
+        Span a = new Span(0);
+        Span b = new Span(1);
+        registry.add(a, "a");
+        registry.add(b, "b");
+        registry.clear();
+
+        assertEquals(0, registry.size());
+        assertFalse(a.isRegistered());
+        assertFalse(b.isRegistered());
+        assertNull(registry.first());
+        registry.add(a, "a");
+        assertSame(a, registry.get("a"));
+    }
+
+    @Test
+    public void matchesModelUnderRandomOperations() {
+        final int count = 10000;
+        final Random random = new Random(1);
+        final SpanRegistry<Span> registry = new SpanRegistry<Span>();
+        final Span[] spans = new Span[count];
+        for (int i = 0; i < count; i++) {
+            spans[i] = new Span(i);
+        }
+
+        // the registry order, and the registration order of each key
+        final List<Span> model = new ArrayList<Span>();
+        final Map<Object, List<Span>> keys = new HashMap<Object, List<Span>>();
+
+        for (int op = 0; op < 200000; op++) {
+            final Span span = spans[random.nextInt(count)];
+            final Integer key = span.id % 100;
+            if (span.isRegistered()) {
+                assertTrue(registry.remove(span));
+                model.remove(span);
+                keys.get(key).remove(span);
+            } else {
+                if (!model.isEmpty() && random.nextInt(4) == 0) {
+                    final Span before = model.get(random.nextInt(model.size()));
+                    registry.insertBefore(span, key, before);
+                    model.add(model.indexOf(before), span);
+                } else {
+                    registry.add(span, key);
+                    model.add(span);
+                }
+                if (!keys.containsKey(key)) {
+                    keys.put(key, new ArrayList<Span>());
+                }
+                keys.get(key).add(span);
+            }
+
+            if (model.size() > 1000) {
+                registry.clear();
+                model.clear();
+                keys.clear();
+            }
+        }
+
+        assertEquals(model.size(), registry.size());
+        int i = 0;
+        for (Span span : registry) {
+            assertSame(model.get(i++), span);
+        }
+        for (int key = 0; key < 100; key++) {
+            final List<Span> registered = keys.get(key);
+            if (registered == null || registered.isEmpty()) {
+                assertFalse(registry.contains(key));
+            } else {
+                assertSame(registered.get(0), registry.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void scale() {
+        final int count = 200000;
+        final SpanRegistry<Span> registry = new SpanRegistry<Span>();
+        final Span[] spans = new Span[count];
+        for (int i = 0; i < count; i++) {
+            spans[i] = new Span(i);
+            registry.add(spans[i], i);
+        }
+        for (int i = 0; i < count; i += 2) {
+            assertTrue(registry.remove(spans[i]));
+        }
+
+        assertEquals(count / 2, registry.size());
+        int expected = 1;
+        for (Span span : registry) {
+            assertEquals(expected, span.id);
+            expected += 2;
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(i % 2 == 1 ? spans[i] : null, registry.get(i));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Zemin Liu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zemin.autocomplete.widget;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopKSelectorTest {
+
+    @Test
+    public void keepsBestFirst() {
+        TopKSelector selector = new TopKSelector(3);
+        selector.offer(0, 5);
+        selector.offer(1, 9);
+        selector.offer(2, 1);
+        selector.offer(3, 7);
+        selector.offer(4, 9);
+
+        int[] out = new int[3];
+        assertEquals(3, selector.drainTo(out));
+        // equal scores: the lower index wins
+        assertArrayEquals(new int[] { 1, 4, 3 }, out);
+        assertEquals(0, selector.size());
+    }
+
+    @Test
+    public void fewerCandidatesThanCapacity() {
+        TopKSelector selector = new TopKSelector(10);
+        selector.offer(7, 1);
+        selector.offer(3, 2);
+
+        int[] out = new int[10];
+        assertEquals(2, selector.drainTo(out));
+        assertEquals(3, out[0]);
+        assertEquals(7, out[1]);
+    }
+
+    @Test
+    public void zeroCapacity() {
+        TopKSelector selector = new TopKSelector(0);
+        assertFalse(selector.offer(0, 1));
+        assertEquals(0, selector.drainTo(new int[0]));
+    }
+
+    @Test
+    public void offerTellsWhetherKept() {
+        TopKSelector selector = new TopKSelector(1);
+        assertTrue(selector.offer(0, 5));
+        assertFalse(selector.offer(1, 4));
+        assertFalse(selector.offer(2, 5));
+        assertTrue(selector.offer(3, 6));
+    }
+
+    @Test
+    public void matchesSortAtScale() {
+        final Random random = new Random(1);
+        final int n = 1000000;
+        final int[] scores = new int[n];
+        for (int i = 0; i < n; i++) {
+            scores[i] = random.nextInt(10000);
+        }
+
+        for (int k : new int[] { 1, 50, 1000 }) {
+            final TopKSelector selector = new TopKSelector(k);
+            for (int i = 0; i < n; i++) {
+                selector.offer(i, scores[i]);
+            }
+            final int[] out = new int[k];
+            assertEquals(k, selector.drainTo(out));
+
+            // sort by score descending, then index ascending
+            final long[] order = new long[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = ((long) (10000 - scores[i]) << 32) | i;
+            }
+            Arrays.sort(order);
+            for (int i = 0; i < k; i++) {
+                assertEquals((int) order[i], out[i]);
+            }
+        }
+    }
+}